@@ -0,0 +1,21 @@
+#vertex
+#inputs <0: vec4 / rect; 1: vec4 / inCol; 2: float / zlevel>
+#outputs <0: vec4 / outCol>
+
+#include <XENON_UI_ESSENTIALS>
+#include <XENON_UI_QUAD>
+
+void main()
+{
+    outCol = inCol;
+    gl_Position = vec4(correct2D( mix(rect.xy, rect.zw, quadCorner()) ), zlevel, 1.0);
+}
+
+#fragment
+#inputs <0: vec4 / inCol>
+#outputs <0: vec4 / outCol>
+
+void main()
+{
+    outCol = inCol;
+}
\ No newline at end of file
@@ -0,0 +1,25 @@
+#vertex
+#inputs <0: vec2 / pos; 1: vec2 / inUVs; 2: uint / inLayer; 3: float / zlevel>
+#outputs <0: vec2 / outUVs; 1[flat]: uint / outLayer>
+
+#include <XENON_UI_ESSENTIALS>
+
+void main()
+{
+    outUVs = inUVs;
+    outLayer = inLayer;
+    gl_Position = vec4(correct2D( pos ), zlevel, 1.0);
+}
+
+#fragment
+#inputs <0: vec2 / inUVs; 1[flat]: uint / inLayer>
+#outputs <0: vec4 / outCol>
+
+layout (binding=0) uniform sampler2DArray textures;
+
+void main()
+{
+    outCol = texture(textures, vec3(inUVs, float(inLayer)));
+    if (outCol.a < 0.1)
+        discard;
+}
\ No newline at end of file
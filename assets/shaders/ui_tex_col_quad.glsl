@@ -0,0 +1,28 @@
+#vertex
+#inputs <0: vec4 / rect; 1: vec4 / uvRect; 2: vec4 / inCol; 3: uvec2 / inTexID; 4: float / zlevel>
+#outputs <0: vec4 / outCol; 1: vec2 / outUVs; 2[flat]: uvec2 / outTexID>
+
+#include <XENON_UI_ESSENTIALS>
+#include <XENON_UI_QUAD>
+
+void main()
+{
+    vec2 corner = quadCorner();
+    outCol = inCol;
+    outUVs = mix(uvRect.xy, uvRect.zw, corner);
+    outTexID = inTexID;
+    gl_Position = vec4(correct2D( mix(rect.xy, rect.zw, corner) ), zlevel, 1.0);
+}
+
+#fragment
+#extension GL_ARB_bindless_texture : require
+#inputs <0: vec4 / inCol; 1: vec2 / inUVs; 2[flat]: uvec2 / inTexID>
+#outputs <0: vec4 / outCol>
+
+void main()
+{
+    sampler2D s = sampler2D(inTexID);
+    outCol = inCol * texture(s, inUVs);
+    if (outCol.a < 0.1)
+        discard;
+}
\ No newline at end of file
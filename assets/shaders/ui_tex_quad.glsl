@@ -0,0 +1,27 @@
+#vertex
+#inputs <0: vec4 / rect; 1: vec4 / uvRect; 2: uvec2 / inTexID; 3: float / zlevel>
+#outputs <0: vec2 / outUVs; 1[flat]: uvec2 / outTexID>
+
+#include <XENON_UI_ESSENTIALS>
+#include <XENON_UI_QUAD>
+
+void main()
+{
+    vec2 corner = quadCorner();
+    outUVs = mix(uvRect.xy, uvRect.zw, corner);
+    outTexID = inTexID;
+    gl_Position = vec4(correct2D( mix(rect.xy, rect.zw, corner) ), zlevel, 1.0);
+}
+
+#fragment
+#extension GL_ARB_bindless_texture : require
+#inputs <0: vec2 / inUVs; 1[flat]: uvec2 / inTexID>
+#outputs <0: vec4 / outCol>
+
+void main()
+{
+    sampler2D s = sampler2D(inTexID);
+    outCol = texture(s, inUVs);
+    if (outCol.a < 0.1)
+        discard;
+}
\ No newline at end of file
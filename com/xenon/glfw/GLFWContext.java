@@ -2,6 +2,7 @@ package com.xenon.glfw;
 
 import com.xenon.glfw.abstraction.Disposable;
 import org.lwjgl.glfw.GLFWErrorCallback;
+import org.lwjgl.opengl.GL;
 
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL11.GL_TRUE;
@@ -110,6 +111,14 @@ public final class GLFWContext implements Disposable {
         return (versionMajor == major && versionMinor >= minor) || versionMajor > major;
     }
 
+    /**
+     * Must be called once a window, hence an OpenGL context, has been created.
+     * @return whether <code>GL_ARB_bindless_texture</code> is supported, e.g. not on Mesa llvmpipe
+     */
+    public boolean bindlessTextures() {
+        return GL.getCapabilities().GL_ARB_bindless_texture;
+    }
+
 
     @Override
     @SuppressWarnings("all")
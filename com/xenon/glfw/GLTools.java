@@ -194,6 +194,26 @@ public class GLTools {
         bindIBO(0);
     }
 
+    private static int pbo;
+    /**
+     * Essentially
+     * <code>glBindBuffer(GL_PIXEL_UNPACK_BUFFER, id)</code>
+     * @param id the buffer's id to be bound
+     */
+    public static void bindPBO(int id){
+        if (id != pbo) {
+            glBindBuffer(GL_PIXEL_UNPACK_BUFFER, id);
+            pbo = id;
+        }
+    }
+    /**
+     * Essentially
+     * <code>glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0)</code>
+     */
+    public static void unbindPBO(){
+        bindPBO(0);
+    }
+
     /**
      * whether blending is currently enabled
      */
@@ -201,11 +221,11 @@ public class GLTools {
 
     /**
      * Essentially
-     * <code>glEnable(GL_BLEND)</code>
+     * <code>glEnable(GL_BLEND)</code>.
+     * Quads ended from now on are queued as translucent by the {@link Renderers}, pending quads are not flushed.
      */
     public static void enableBlend() {
         if (!blend) {
-            Renderers.draw();   // blending breaks batching
             glEnable(GL_BLEND);
             blend = true;
         }
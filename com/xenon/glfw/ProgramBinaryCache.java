@@ -0,0 +1,172 @@
+package com.xenon.glfw;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static org.lwjgl.opengl.GL41.*;
+
+/**
+ * On-disk cache of linked program binaries, see {@link ShaderProgram#binaryCache(ProgramBinaryCache)}.
+ * <p>
+ * Entries are keyed by a SHA-256 of the full sources, version header included, along with <code>GL_RENDERER</code>,
+ * <code>GL_VERSION</code> and the GLSL version of the {@link GLFWContext}, so that a driver update or another GPU
+ * never reads stale binaries. Each entry is a file holding the binary format, the binary and its CRC32.
+ * <p>
+ * Several processes may share the directory: entries are written to a temporary file then atomically moved in
+ * place, so that readers see either a whole entry or none, and unreadable or corrupted entries are simply misses.
+ * Once the entries exceed the size budget, the least recently used ones (by modification time, refreshed on every
+ * hit) are deleted.
+ */
+@OpenGL("Requires OpenGL 4.1 (Program Binaries)")
+public class ProgramBinaryCache {
+
+    private static final int MAGIC = 0x58504231;   // XPB1
+    private static final int HEADER = 16;
+    private static final String SUFFIX = ".bin";
+    /**
+     * Temporary files left by a process killed mid-write are deleted once this old, in milliseconds.
+     */
+    private static final long STALE_TEMP = 3_600_000L;
+
+    private final Path directory;
+    private final long maxBytes;
+    private String driver;
+
+    /**
+     * @param directory the directory of the cache, created if needed
+     * @param maxBytes the maximum total size in bytes of the entries
+     * @throws IllegalArgumentException if <code>maxBytes</code> is negative
+     */
+    public ProgramBinaryCache(Path directory, long maxBytes) {
+        if (maxBytes < 0)
+            throw new IllegalArgumentException("Negative cache budget: " + maxBytes);
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Must be called with a current context.
+     * @param vertexCode the vertex shader source code, version header included
+     * @param fragmentCode the fragment shader source code, version header included
+     * @return the key of the program
+     */
+    String key(String vertexCode, String fragmentCode) {
+        if (driver == null)
+            driver = glGetString(GL_RENDERER) + '\0' + glGetString(GL_VERSION) + '\0'
+                    + GLFWContext.current().glslVersion + '\0';
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(driver.getBytes(StandardCharsets.UTF_8));
+            sha.update(vertexCode.getBytes(StandardCharsets.UTF_8));
+            sha.update((byte) 0);
+            sha.update(fragmentCode.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(sha.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-256 is always available", e);
+        }
+    }
+
+    /**
+     * Loads a cached binary into <code>program</code>.
+     * @param key the key of the program
+     * @param program a new program, neither linked nor with attached shaders
+     * @return whether the driver accepted the cached binary, in which case the program is linked
+     */
+    boolean load(String key, int program) {
+        Path entry = directory.resolve(key + SUFFIX);
+        ByteBuffer data;
+        try {
+            byte[] bytes = Files.readAllBytes(entry);
+            data = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            if (bytes.length < HEADER || data.getInt(0) != MAGIC || data.getInt(8) != bytes.length - HEADER)
+                return false;
+            CRC32 crc = new CRC32();
+            crc.update(bytes, HEADER, bytes.length - HEADER);
+            if ((int) crc.getValue() != data.getInt(12))
+                return false;
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {   // missing, or deleted by another process meanwhile
+            return false;
+        }
+        ByteBuffer binary = ByteBuffer.allocateDirect(data.capacity() - HEADER)
+                .put(data.position(HEADER)).flip();
+        glProgramBinary(program, data.getInt(4), binary);
+        return glGetProgrami(program, GL_LINK_STATUS) == GL_TRUE;
+    }
+
+    /**
+     * Stores the binary of a linked program, then evicts old entries if needed. Failures only print a warning.
+     * @param key the key of the program
+     * @param program a program linked with <code>GL_PROGRAM_BINARY_RETRIEVABLE_HINT</code>
+     */
+    void store(String key, int program) {
+        int length = glGetProgrami(program, GL_PROGRAM_BINARY_LENGTH);
+        if (length <= 0)
+            return;
+        ByteBuffer binary = ByteBuffer.allocateDirect(length);
+        int[] format = new int[1], written = new int[1];
+        glGetProgramBinary(program, written, format, binary);
+        binary.limit(written[0]);
+
+        byte[] bytes = new byte[HEADER + written[0]];
+        binary.get(bytes, HEADER, written[0]);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, HEADER, written[0]);
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(MAGIC).putInt(format[0]).putInt(written[0]).putInt((int) crc.getValue());
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            try {
+                Files.write(temp, bytes);
+                Files.move(temp, directory.resolve(key + SUFFIX), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            evict();
+        } catch (IOException e) {
+            System.err.println("Warning caching program binary " + key + ": " + e);
+        }
+    }
+
+    /*
+    * Deletes the least recently used entries beyond the budget, and stale temporary files
+    * */
+    private void evict() throws IOException {
+        record Entry(Path path, long size, long time) {}
+        List<Entry> entries = new ArrayList<>();
+        long total = 0, now = System.currentTimeMillis();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path p : (Iterable<Path>) files::iterator) try {
+                String name = p.getFileName().toString();
+                long time = Files.getLastModifiedTime(p).toMillis();
+                if (name.endsWith(".tmp") && now - time > STALE_TEMP)
+                    Files.deleteIfExists(p);
+                else if (name.endsWith(SUFFIX)) {
+                    Entry e = new Entry(p, Files.size(p), time);
+                    entries.add(e);
+                    total += e.size;
+                }
+            } catch (NoSuchFileException ignored) {}    // deleted by another process
+        }
+        if (total <= maxBytes)
+            return;
+        entries.sort((a, b) -> Long.compare(a.time, b.time));
+        for (int i = 0; total > maxBytes && i < entries.size(); i++) {
+            Files.deleteIfExists(entries.get(i).path);
+            total -= entries.get(i).size;
+        }
+    }
+}
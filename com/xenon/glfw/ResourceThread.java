@@ -0,0 +1,183 @@
+package com.xenon.glfw;
+
+import com.xenon.glfw.abstraction.Disposable;
+import org.lwjgl.opengl.GL;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.lwjgl.glfw.GLFW.*;
+import static org.lwjgl.opengl.GL45.*;
+import static org.lwjgl.system.MemoryUtil.NULL;
+
+/**
+ * Dedicated loader thread owning a hidden window whose context shares its objects with the context of a
+ * {@link Window}, so that buffers, textures and {@link ShaderProgram}s are created while the render thread keeps on
+ * drawing.
+ * <p>
+ * Each task is followed by a fence. Its future is only completed once the fence signals, by {@link #update()} on
+ * the render thread, so that the objects it created are complete when the render thread first sees them, and
+ * first binds them.
+ * <p>
+ * Tasks run on another context: they must not go through {@link GLTools}, whose caches track the bindings of the
+ * render thread.
+ */
+@OpenGL("Requires OpenGL 4.5 (DSA + Sync Objects)")
+public class ResourceThread implements Disposable {
+
+    private static final Runnable STOP = () -> {};
+
+    private final long window;
+    private final Thread thread;
+    private final LinkedBlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+    /*
+    * Tasks run and fenced, in submission order
+    * */
+    private final ConcurrentLinkedQueue<Fenced<?>> fenced = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates the hidden shared window and starts the loader thread. Must be called on the main thread, like every
+     * window creation, with the window hints of the {@link GLFWContext} still set.
+     * @param shared the window whose context shares its objects with the loader
+     * @throws IllegalStateException if the hidden window couldn't be created
+     */
+    public ResourceThread(Window shared) {
+        glfwWindowHint(GLFW_VISIBLE, GLFW_FALSE);
+        window = glfwCreateWindow(1, 1, "", NULL, shared.handle);
+        glfwWindowHint(GLFW_VISIBLE, GLFW_TRUE);
+        if (window == NULL)
+            throw new IllegalStateException("GLFW failed to create the shared context.");
+
+        thread = new Thread(this::run, "GL resource loader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        glfwMakeContextCurrent(window);
+        GL.createCapabilities();
+        try {
+            for (Runnable task; (task = tasks.take()) != STOP;)
+                task.run();
+        } catch (InterruptedException ignored) {
+        } finally {
+            GL.setCapabilities(null);
+            glfwMakeContextCurrent(NULL);
+        }
+    }
+
+    /**
+     * Runs a task on the loader thread.
+     * @param task the task, creating GL objects through the shared context
+     * @return a future completed by {@link #update()} once the commands of the task are complete on the GPU, or
+     * exceptionally if the task threw
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        Fenced<T> f = new Fenced<>();
+        tasks.add(() -> {
+            try {
+                f.result = task.call();
+            } catch (Exception e) {
+                f.error = e;
+            }
+            f.fence = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            glFlush();  // so that the render thread doesn't wait on a fence never submitted
+            fenced.add(f);
+        });
+        return f.future;
+    }
+
+    /**
+     * Compiles and links a program on the loader thread.
+     * @param vertexCode the vertex shader source code without the version header
+     * @param fragmentCode the fragment shader source code without the version header
+     * @return the future program
+     * @see ShaderProgram#build(String, String)
+     */
+    public CompletableFuture<ShaderProgram> program(String vertexCode, String fragmentCode) {
+        return submit(() -> ShaderProgram.build(vertexCode, fragmentCode));
+    }
+
+    /**
+     * Creates an immutable buffer on the loader thread.
+     * @param data the content of the buffer, which must stay valid until the future completes
+     * @param flags the storage flags
+     * @return the future buffer id
+     */
+    public CompletableFuture<Integer> buffer(ByteBuffer data, int flags) {
+        return submit(() -> {
+            int buffer = glCreateBuffers();
+            glNamedBufferStorage(buffer, data, flags);
+            return buffer;
+        });
+    }
+
+    /**
+     * Creates an RGBA8 texture on the loader thread.
+     * @param rgba <code>width * height</code> RGBA8 texels, which must stay valid until the future completes
+     * @param width the width of the texture
+     * @param height the height of the texture
+     * @return the future texture id
+     */
+    public CompletableFuture<Integer> texture(ByteBuffer rgba, int width, int height) {
+        return submit(() -> {
+            int texture = glCreateTextures(GL_TEXTURE_2D);
+            glTextureStorage2D(texture, 1, GL_RGBA8, width, height);
+            glTextureParameteri(texture, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+            glTextureParameteri(texture, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+            glTextureSubImage2D(texture, 0, 0, 0, width, height, GL_RGBA, GL_UNSIGNED_BYTE, rgba);
+            return texture;
+        });
+    }
+
+    /**
+     * Completes the futures of the tasks whose fence has signaled, in submission order. Must be called on the
+     * render thread, typically once per frame. Never blocks.
+     */
+    public void update() {
+        for (Fenced<?> f; (f = fenced.peek()) != null;) {
+            int status = glClientWaitSync(f.fence, 0, 0);
+            if (status != GL_ALREADY_SIGNALED && status != GL_CONDITION_SATISFIED)
+                break;
+            fenced.poll();
+            glDeleteSync(f.fence);
+            f.complete();
+        }
+    }
+
+    /**
+     * Stops the loader thread once the tasks already submitted are run, then destroys the hidden window.
+     * Futures not completed yet never complete.
+     */
+    @Override
+    public void dispose() {
+        tasks.add(STOP);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Fenced<?> f; (f = fenced.poll()) != null;)
+            glDeleteSync(f.fence);
+        glfwDestroyWindow(window);
+    }
+
+    /*
+    * The outcome of a task and its fence, published to the render thread by the fenced queue
+    * */
+    private static final class Fenced<T> {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        T result;
+        Exception error;
+        long fence;
+
+        void complete() {
+            if (error != null)
+                future.completeExceptionally(error);
+            else future.complete(result);
+        }
+    }
+}
@@ -1,12 +1,17 @@
 package com.xenon.glfw;
 
 import com.xenon.glfw.abstraction.Disposable;
+import org.lwjgl.opengl.GL;
 
 import java.util.AbstractMap;
 
 import static com.xenon.glfw.GLTools.bindProgram;
 import static com.xenon.glfw.GLTools.unbindProgram;
 import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL41.GL_PROGRAM_BINARY_RETRIEVABLE_HINT;
+import static org.lwjgl.opengl.GL41.glProgramParameteri;
+import static org.lwjgl.opengl.KHRParallelShaderCompile.GL_COMPLETION_STATUS_KHR;
+import static org.lwjgl.opengl.KHRParallelShaderCompile.glMaxShaderCompilerThreadsKHR;
 
 /**
  * @author Zenon
@@ -31,32 +36,99 @@ public class ShaderProgram implements Disposable {
         return new ShaderProgram(vertexCode, fragmentCode);
     }
 
+    /**
+     * Submits the compilation and the linking of a new shader program without waiting for them, see
+     * {@link #buildAsync(String, String)}.
+     * @param shadersCode the vertex and shader code
+     */
+    public static ShaderProgram buildAsync(AbstractMap.SimpleEntry<String, String> shadersCode){
+        return buildAsync(shadersCode.getKey(), shadersCode.getValue());
+    }
+
+    /**
+     * Submits the compilation and the linking of a new shader program without waiting for them, so that many
+     * programs compile at once. With <code>GL_KHR_parallel_shader_compile</code>, the driver compiles on as many
+     * threads as it wants and {@link #ready()} never blocks. Otherwise, the first {@link #ready()} call waits for
+     * the program, the other ones still being compiled meanwhile.
+     * @param vertexCode the vertex shader source code without the version header
+     * @param fragmentCode the fragment shader source code without the version header
+     */
+    public static ShaderProgram buildAsync(String vertexCode, String fragmentCode){
+        if (!parallelChecked) {
+            parallel = GL.getCapabilities().GL_KHR_parallel_shader_compile;
+            if (parallel)
+                glMaxShaderCompilerThreadsKHR(0xFFFFFFFF);  // as many as the implementation wants
+            parallelChecked = true;
+        }
+        return new ShaderProgram(vertexCode, fragmentCode, true);
+    }
+
+    /*
+    * Whether GL_KHR_parallel_shader_compile is available, checked on the first asynchronous build
+    * */
+    private static boolean parallelChecked, parallel;
+
+    private static volatile ProgramBinaryCache binaryCache;
+
+    /**
+     * Sets the cache of program binaries used by the programs built from now on, on any thread. Programs found in
+     * the cache are loaded with <code>glProgramBinary</code> instead of being compiled, falling back to compiling
+     * if the driver rejects the binary. Programs compiled from source are stored once linked.
+     * @param cache the cache, null to disable caching
+     */
+    public static void binaryCache(ProgramBinaryCache cache){
+        binaryCache = cache;
+    }
+
 
     public final int programId;
+    private final int vertexId, fragmentId;
+    /**
+     * Whether the compile and link statuses were checked, see {@link #join()}.
+     */
+    private boolean linked;
+    /*
+    * Where to store the binary once linked, if caching
+    * */
+    private final ProgramBinaryCache cache;
+    private final String cacheKey;
+
     /**
      * Create a new shader program, as well as its vertex and fragment subprograms, then link everything.
      * @param vertexCode the vertex shader source code without the version header
      * @param fragmentCode the fragment shader source code without the version header
      */
     public ShaderProgram(String vertexCode, String fragmentCode){
+        this(vertexCode, fragmentCode, false);
+    }
+
+    private ShaderProgram(String vertexCode, String fragmentCode, boolean async){
         programId = glCreateProgram();
         if ( programId == 0 )
             throw new RuntimeException("Failed to create a shader program of code "+vertexCode+", \n"+fragmentCode);
         GLFWContext context = GLFWContext.current();
         String header = "#version " + context.glslVersion + (context.coreVersion ? " core\n" : "\n");
 
-        int vertexId = createShader(header + vertexCode, GL_VERTEX_SHADER);
-        int fragmentId = createShader(header + fragmentCode, GL_FRAGMENT_SHADER);
-        // linking
+        ProgramBinaryCache cache = binaryCache;
+        String key = cache == null ? null : cache.key(header + vertexCode, header + fragmentCode);
+        if (key != null && cache.load(key, programId)) {
+            vertexId = fragmentId = 0;
+            this.cache = null;
+            cacheKey = null;
+            linked = true;
+            return;
+        }
+        this.cache = cache;
+        cacheKey = key;
+        if (key != null)
+            glProgramParameteri(programId, GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL_TRUE);
+
+        vertexId = createShader(header + vertexCode, GL_VERTEX_SHADER);
+        fragmentId = createShader(header + fragmentCode, GL_FRAGMENT_SHADER);
+        // linking, statuses are only queried by join() so that the driver doesn't have to finish right away
         glLinkProgram(programId);
-        if ( glGetProgrami(programId, GL_LINK_STATUS) == 0 )
-            throw new RuntimeException("Error linking Shader code: " + glGetProgramInfoLog(programId, 1024));
-        // no longer need vertex and fragment shader objects
-        glDetachShader(programId, vertexId);
-        glDetachShader(programId, fragmentId);
-        glValidateProgram(programId);
-        if ( glGetProgrami(programId, GL_VALIDATE_STATUS) == 0 )
-            System.err.println("Warning validating Shader code: " + glGetProgramInfoLog(programId, 1024));
+        if (!async)
+            join();
     }
 
     /**
@@ -75,19 +147,60 @@ public class ShaderProgram implements Disposable {
 
         glShaderSource(id, code);
         glCompileShader(id);
-
-        if ( glGetShaderi(id, GL_COMPILE_STATUS) == 0 )
-            throw new RuntimeException("Error compiling Shader code: " + glGetShaderInfoLog(id, 1024));
-
         glAttachShader(programId, id);
         return id;
     }
 
+    /**
+     * Polls a program built by {@link #buildAsync(String, String)}, never blocking with
+     * <code>GL_KHR_parallel_shader_compile</code>.
+     * @return whether the program is linked and can be bound
+     * @throws RuntimeException if the program failed to compile or link
+     */
+    public boolean ready(){
+        if (linked)
+            return true;
+        if (parallel && glGetProgrami(programId, GL_COMPLETION_STATUS_KHR) == GL_FALSE)
+            return false;
+        join();
+        return true;
+    }
+
+    /**
+     * Waits for the program to be compiled and linked, then checks it.
+     * @return this program
+     * @throws RuntimeException if the program failed to compile or link
+     */
+    public ShaderProgram join(){
+        if (linked)
+            return this;
+        if ( glGetShaderi(vertexId, GL_COMPILE_STATUS) == 0 )
+            throw new RuntimeException("Error compiling Shader code: " + glGetShaderInfoLog(vertexId, 1024));
+        if ( glGetShaderi(fragmentId, GL_COMPILE_STATUS) == 0 )
+            throw new RuntimeException("Error compiling Shader code: " + glGetShaderInfoLog(fragmentId, 1024));
+        if ( glGetProgrami(programId, GL_LINK_STATUS) == 0 )
+            throw new RuntimeException("Error linking Shader code: " + glGetProgramInfoLog(programId, 1024));
+        // no longer need vertex and fragment shader objects
+        glDetachShader(programId, vertexId);
+        glDetachShader(programId, fragmentId);
+        glDeleteShader(vertexId);
+        glDeleteShader(fragmentId);
+        glValidateProgram(programId);
+        if ( glGetProgrami(programId, GL_VALIDATE_STATUS) == 0 )
+            System.err.println("Warning validating Shader code: " + glGetProgramInfoLog(programId, 1024));
+        if (cacheKey != null)
+            cache.store(cacheKey, programId);
+        linked = true;
+        return this;
+    }
+
 
     /**
-     * Bind this shader program.
+     * Bind this shader program, waiting for it if it was built asynchronously and isn't {@link #ready()}.
      */
     public void bind(){
+        if (!linked)
+            join();
         bindProgram(programId);
     }
 
@@ -101,6 +214,10 @@ public class ShaderProgram implements Disposable {
     @Override
     public void dispose() {
         unbind();
+        if (!linked) {
+            glDeleteShader(vertexId);
+            glDeleteShader(fragmentId);
+        }
         glDeleteProgram(programId);
     }
 }
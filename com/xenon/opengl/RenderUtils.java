@@ -1,5 +1,6 @@
 package com.xenon.opengl;
 
+import com.xenon.opengl.abstraction.DynamicAtlas;
 import com.xenon.opengl.abstraction.WorldRenderer;
 
 public class RenderUtils {
@@ -10,15 +11,9 @@ public class RenderUtils {
         drawColoredRectRaw(w, x, y, x + width, y + height, color);
     }
     public static void drawColoredRectRaw(WorldRenderer w, double x1, double y1, double x2, double y2, int color) {
-        int r = color >> 16 & 255;
-        int g = color >> 8 & 255;
-        int b = color & 255;
-        int a = color >> 24 & 255;
-
-        w.pos(x1, y1).color(r, g, b, a).endVertex();
-        w.pos(x1, y2).color(r, g, b, a).endVertex();
-        w.pos(x2, y2).color(r, g, b, a).endVertex();
-        w.pos(x2, y1).color(r, g, b, a).endVertex();
+        float fx1 = (float) x1, fy1 = (float) y1, fx2 = (float) x2, fy2 = (float) y2;
+        if (!w.cull(fx1, fy1, fx2, fy2, color))
+            w.quad(fx1, fy1, fx2, fy2, color);
     }
 
     public static void drawTexturedRect(WorldRenderer w, double x, double y, double u, double v,
@@ -32,12 +27,19 @@ public class RenderUtils {
 
     public static void drawTexturedRectRaw(WorldRenderer w, double x1, double y1, double u1, double v1,
                                         double x2, double y2, double u2, double v2) {
-
-        w.pos(x1, y1).tex(u1, v1).endVertex();
-        w.pos(x1, y2).tex(u1, v2).endVertex();
-        w.pos(x2, y2).tex(u2, v2).endVertex();
-        w.pos(x2, y1).tex(u2, v1).endVertex();
+        float fx1 = (float) x1, fy1 = (float) y1, fx2 = (float) x2, fy2 = (float) y2;
+        if (!w.cull(fx1, fy1, fx2, fy2))
+            w.quad(fx1, fy1, fx2, fy2, (float) u1, (float) v1, (float) u2, (float) v2);
+    }
+    /**
+     * Binds the atlas page of <code>region</code> and draws the whole region at its size.
+     */
+    public static void drawAtlasRect(WorldRenderer w, double x, double y, DynamicAtlas.Region region) {
+        region.bind();
+        drawTexturedRectRaw(w, x, y, region.u1(), region.v1(), x + region.width, y + region.height,
+                region.u2(), region.v2());
     }
+
     public static void drawTexturedColoredRect(WorldRenderer w, double x, double y, double u, double v,
                                                double width, double height, double texWidth, double texHeight,
                                                int color) {
@@ -50,15 +52,9 @@ public class RenderUtils {
 
     public static void drawTexturedColoredRectRaw(WorldRenderer w, double x1, double y1, double u1, double v1,
                                                   double x2, double y2, double u2, double v2, int color) {
-        int r = color >> 16 & 255;
-        int g = color >> 8 & 255;
-        int b = color & 255;
-        int a = color >> 24 & 255;
-
-        w.pos(x1, y1).tex(u1, v1).color(r, g, b, a).endVertex();
-        w.pos(x1, y2).tex(u1, v2).color(r, g, b, a).endVertex();
-        w.pos(x2, y2).tex(u2, v2).color(r, g, b, a).endVertex();
-        w.pos(x2, y1).tex(u2, v1).color(r, g, b, a).endVertex();
+        float fx1 = (float) x1, fy1 = (float) y1, fx2 = (float) x2, fy2 = (float) y2;
+        if (!w.cull(fx1, fy1, fx2, fy2, color))
+            w.quad(fx1, fy1, fx2, fy2, (float) u1, (float) v1, (float) u2, (float) v2, color);
     }
 
     /*More advanced methods*/
@@ -14,18 +14,36 @@ public record VertexFormat(VertexFormatElement... elements) {
             GL_UNSIGNED_BYTE, Byte.BYTES,
             GL_SHORT, Short.BYTES,
             GL_UNSIGNED_SHORT, Short.BYTES,
+            GL_HALF_FLOAT, Short.BYTES,
             GL_INT, Integer.BYTES,
             GL_UNSIGNED_INT, Integer.BYTES,
             GL_FLOAT, Float.BYTES,
             GL_DOUBLE, Double.BYTES
     );
     private static final Map<Integer, String> dataTypes = Map.of(
+            GL_SHORT, "int",
+            GL_UNSIGNED_SHORT, "uint",
             GL_INT, "int",
             GL_UNSIGNED_INT, "uint",
             GL_FLOAT, "float",
+            GL_HALF_FLOAT, "float",
+            GL_INT_2_10_10_10_REV, "float",
+            GL_UNSIGNED_INT_2_10_10_10_REV, "float",
             GL_DOUBLE, "double"
     );
 
+    /**
+     * Elements are left untouched, so that they may be shared between formats.
+     * @throws IllegalArgumentException if the elements of a binding are not all fetched the same way
+     */
+    public VertexFormat {
+        Map<Integer, Fetch> fetchByBuffer = new HashMap<>();
+        for (VertexFormatElement el : elements)
+            if (fetchByBuffer.computeIfAbsent(el.binding, b -> el.fetch) != el.fetch)
+                throw new IllegalArgumentException("Elements of binding " + el.binding + " are fetched both as "
+                        + el.fetch + " and " + fetchByBuffer.get(el.binding));
+    }
+
     /**
      * Ensures that elements are sorted by their location,
      * before calling {@link VertexFormat#VertexFormat(VertexFormatElement...)}.
@@ -57,10 +75,49 @@ public record VertexFormat(VertexFormatElement... elements) {
         int i = 0;
         for (var el : elements)
             if (el.binding == binding)
-                i += sizeof(el.type) * el.count;
+                i += el.size();
         return i;
     }
 
+    /**
+     * Computes the offset of an element in a record of its binding, elements of a same binding being laid out
+     * in the order of this format.
+     * @param element an element of this format
+     * @return the offset in bytes of <code>element</code>
+     * @throws IllegalArgumentException if <code>element</code> is not part of this format
+     */
+    public int offset(VertexFormatElement element) {
+        int off = 0;
+        for (var el : elements) {
+            if (el == element)
+                return off;
+            if (el.binding == element.binding)
+                off += el.size();
+        }
+        throw new IllegalArgumentException("Element at location " + element.location + " is not part of " + this);
+    }
+
+    /**
+     * @param binding the binding index
+     * @return whether the data of the given binding is pulled from a shader storage buffer rather than fed
+     * through vertex attributes or read from a uniform block ({@link Fetch#PER_BATCH})
+     */
+    public boolean pulled(int binding) {
+        Fetch fetch = fetch(binding);
+        return fetch == Fetch.PER_VERTEX || fetch == Fetch.PER_QUAD;
+    }
+
+    /**
+     * @param binding the binding index
+     * @return how the elements of the given binding are fetched, null if there is none
+     */
+    public Fetch fetch(int binding) {
+        for (var el : elements)
+            if (el.binding == binding)
+                return el.fetch;
+        return null;
+    }
+
     /**
      * Implementation-wise equivalent to:
      * <code><pre>
@@ -73,36 +130,75 @@ public record VertexFormat(VertexFormatElement... elements) {
      * </pre></code>
      * with <code>e.normalized()</code> only being used with glVertexAttribFormat()
      * (not with glVertexAttribLFormat nor glVertexAttribIFormat).
+     * Elements that are not fetched through {@link Fetch#ATTRIB} are skipped.
      * @param vao the VAO id
      */
     @OpenGL("Requires DSA support (OpenGL 4.5+)")
     public void attribSetup(final int vao) {
-        Map<Integer, Integer> offsetByBuffer = new HashMap<>();
         for (VertexFormatElement el : elements) {
+            if (el.fetch != Fetch.ATTRIB)
+                continue;
             int loc = el.location;
             int bind = el.binding;
             int co = el.count;
             int ty = el.type;
             boolean norm = el.normalized;
-            int size = sizeof(ty) * co;
-            int off;
-            Integer cached_offset = offsetByBuffer.get(bind);
-            off = Objects.requireNonNullElse(cached_offset, 0);
+            int off = offset(el);
 
             glEnableVertexArrayAttrib(vao, loc);
-            if (norm || ty == GL_FLOAT)   // 32-bit floating point
+            if (norm || ty == GL_FLOAT || ty == GL_HALF_FLOAT || packed(ty))   // 32-bit floating point
                 glVertexArrayAttribFormat(vao, loc, co, ty, norm, off);
             else if (ty == GL_DOUBLE)    // 64-bit floating point
                 glVertexArrayAttribLFormat(vao, loc, co, ty, off);
             else glVertexArrayAttribIFormat(vao, loc, co, ty, off); // integer type
             glVertexArrayAttribBinding(vao, loc, bind);
-
-            offsetByBuffer.put(bind, off + size);
         }
     }
 
+    /**
+     * @param type the GL type of a component
+     * @return the size in bytes of a component, or of the whole element for packed types
+     */
     public static int sizeof(int type) {
-        return dataTypeSizes.get(type);
+        return packed(type) ? Integer.BYTES : dataTypeSizes.get(type);
+    }
+
+    /**
+     * @param type the GL type
+     * @return whether <code>type</code> packs the 4 components of an element in a single integer
+     */
+    public static boolean packed(int type) {
+        return type == GL_INT_2_10_10_10_REV || type == GL_UNSIGNED_INT_2_10_10_10_REV;
+    }
+
+    /**
+     * How the data of an element reaches the vertex shader.
+     * <p>
+     * Apart from {@link #ATTRIB}, data is pulled by the vertex shader out of the shader storage buffer bound at the
+     * element's binding index, or out of the uniform buffer for {@link #PER_BATCH}, laid out as tightly packed
+     * records of {@link #stride(int)} bytes, without any alignment requirement. Circe generates the fetch code
+     * instead of an <code>in</code> declaration. All the elements of a binding must be fetched the same way.
+     */
+    public enum Fetch {
+        /**
+         * Classic vertex attribute, set up by {@link #attribSetup(int)}.
+         */
+        ATTRIB,
+        /**
+         * Pulled, one record per vertex (record index <code>gl_VertexID</code>).
+         */
+        PER_VERTEX,
+        /**
+         * Pulled, one record per quad of 4 vertices (record index <code>gl_VertexID / 4</code>).
+         */
+        PER_QUAD,
+        /**
+         * Pulled, a single record for the whole draw call (record index 0), e.g. a per-batch transform.
+         * The record is read from the uniform buffer bound by the application at the element's binding index
+         * (<code>GL_UNIFORM_BUFFER</code>), so that it never collides with the shader storage buffers of the
+         * streamed data. The bound range must cover the record rounded up to 16 bytes, plus 16 bytes.
+         */
+        PER_BATCH
     }
 
     public static class VertexFormatElement extends DataFormatElement {
@@ -123,16 +219,48 @@ public record VertexFormat(VertexFormatElement... elements) {
 
         public final int binding, count, type;
         public final boolean normalized;
+        public final Fetch fetch;
 
         public VertexFormatElement(int location, int binding, int count, int type, boolean normalized) {
-            this(location, binding, count, type, normalized, null);
+            this(location, binding, count, type, normalized, Fetch.ATTRIB);
+        }
+        public VertexFormatElement(int location, int binding, int count, int type, boolean normalized, Fetch fetch) {
+            this(location, binding, count, type, normalized, null, fetch);
         }
         public VertexFormatElement(int location, int binding, int count, int type, boolean normalized, String name) {
+            this(location, binding, count, type, normalized, name, Fetch.ATTRIB);
+        }
+        public VertexFormatElement(int location, int binding, int count, int type, boolean normalized, String name,
+                                   Fetch fetch) {
             super(location, computeGLSLType(count, type, normalized), new String[] {"in"}, name);
+            if (packed(type) && count != 4)
+                throw new IllegalArgumentException("Packed type " + type + " needs 4 components, got " + count);
             this.binding = binding;
             this.count = count;
             this.type = type;
             this.normalized = normalized;
+            this.fetch = fetch;
+        }
+
+        /**
+         * @return the size in bytes of this element
+         */
+        public int size() {
+            return packed(type) ? sizeof(type) : sizeof(type) * count;
+        }
+
+        /**
+         * Also compares the layout of the data: binding, component count and type, normalization and fetch mode.
+         */
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof VertexFormatElement el && super.equals(el) && el.binding == binding
+                    && el.count == count && el.type == type && el.normalized == normalized && el.fetch == fetch;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(location, binding, count, type, normalized, fetch);
         }
 
     }
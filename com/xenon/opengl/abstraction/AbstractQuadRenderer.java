@@ -6,14 +6,17 @@ import com.xenon.glfw.OpenGL;
 import com.xenon.glfw.ShaderProgram;
 import com.xenon.opengl.VertexFormat;
 import com.xenon.utils.MathsTools;
-import org.lwjgl.system.MemoryStack;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.IntBuffer;
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.xenon.glfw.GLTools.*;
 import static org.lwjgl.opengl.GL45.*;
+import static org.lwjgl.system.MemoryUtil.*;
 
 /**
  * @author Zenon
@@ -32,68 +35,288 @@ public abstract class AbstractQuadRenderer implements WorldRenderer {
         return (MathsTools.roundPowerOfTwo(init_quadCapacity * 4 * stride) / stride) >> 2;
     }
 
+    /**
+     * Generalization of {@link #closestQuadCapacityToPowerOfTwo(int, int)} for any number of bytes per quad.
+     * @param init_quadCapacity the initial quadCapacity
+     * @param quadStride the number of bytes each quad takes in the vbo
+     * @return the closest quadCapacity to the initial quadCapacity for which the vbo size is a power of two
+     */
+    private static int roundQuadCapacity(int init_quadCapacity, int quadStride) {
+        return MathsTools.roundPowerOfTwo(init_quadCapacity * quadStride) / quadStride;
+    }
+
     protected static final int VBO_BDG = 0;
 
+    private static final boolean BIG_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+
+    /**
+     * Converts a <code>0xAARRGGBB</code> color to an int which, once written with
+     * {@link org.lwjgl.system.MemoryUtil#memPutInt(long, int)}, lays out as the bytes <code>r, g, b, a</code>,
+     * exactly like {@link #color(int, int, int, int)} does.
+     * @param argb the packed color
+     * @return the native-order RGBA color
+     */
+    protected static int packColor(int argb) {
+        return BIG_ENDIAN ? argb << 8 | argb >>> 24 : argb & 0xFF00FF00 | argb >> 16 & 0xFF | (argb & 0xFF) << 16;
+    }
+
+    /**
+     * Default number of segments of the streamed buffers, i.e. triple buffering.
+     */
+    public static final int DEFAULT_RING_SEGMENTS = 3;
+
     protected ShaderProgram shaderProgram;
-    protected final ByteBuffer vbo_data;
+    /**
+     * Program writing the targets of {@link WeightedBlendedOIT}, if any, see {@link #buildOIT(ShaderProgram)}.
+     */
+    protected ShaderProgram oitProgram;
+    /**
+     * How the buffers of this renderer are streamed, {@link BufferStreamingStrategies#selected()} at construction
+     * unless given to the constructor.
+     */
+    protected final BufferStreamingStrategy.Factory streaming;
+    protected BufferStreamingStrategy vbo_stream;
+    /**
+     * The current segment of {@link #vbo_stream}. Changes after each {@link #GPU()} call.
+     */
+    protected ByteBuffer vbo_data;
 
-    protected final int vao, ebo, vbo, ibo;
-    protected final int quad_capacity;
+    protected final int vao;
+    protected int ebo, ibo;
+    protected final int vbo_stride;
+    /**
+     * Whether each quad is a single instanced record expanded by the vertex shader instead of 4 indexed vertices.
+     */
+    protected final boolean expanded;
+    /**
+     * Whether indexed quads are drawn with one indirect command per quad. This is only required when some attribute
+     * is read per quad with a divisor, since each quad then needs its own <code>baseInstance</code>.
+     * Otherwise, per-quad data is pulled by the vertex shader (see {@link VertexFormat.Fetch#PER_QUAD}) and the whole
+     * batch is a single ranged <code>glDrawElements</code> call.
+     */
+    protected final boolean indirect;
+    /**
+     * Whether the vertices are pulled by the vertex shader out of a shader storage buffer bound at {@link #VBO_BDG}
+     * (see {@link VertexFormat.Fetch#PER_VERTEX}) instead of being fed through the VAO.
+     */
+    protected final boolean pulled;
+    /**
+     * Number of bytes each quad takes in the vbo, i.e. <code>4 * vbo_stride</code> or <code>vbo_stride</code>
+     * if {@link #expanded}.
+     */
+    protected final int quad_stride;
+    protected int quad_capacity;
     protected final VertexFormat format;
 
+    protected OverflowPolicy overflowPolicy = OverflowPolicy.FLUSH;
+    /*
+    * Quads already drawn by FLUSH overflows since the last GPU() call, and the biggest quad count seen by GPU()
+    * */
+    private int spilledQuads, highWaterMark;
     protected int vertexCount;
+    /**
+     * Quad cursor of the concurrent recording mode, see {@link #reserveQuad()}. May go past {@link #quad_capacity},
+     * the extra quads being dropped.
+     */
+    private final AtomicInteger reservedQuads = new AtomicInteger();
+    private int droppedQuads;
+    /*
+    * Viewport quads are culled against, if enabled, and culling counters
+    * */
+    private float viewX1, viewY1, viewX2, viewY2;
+    private boolean viewport;
+    private int culledQuads, emittedQuads;
+    /*
+    * Sort key of each pending quad (see endQuad()), number of pending translucent quads, whether opaque quads are
+    * sorted front to back, the counting sort buckets, and the streamed buffer holding the sorted indices or indirect
+    * commands, created lazily
+    * */
+    private short[] sortKeys;
+    private int[] sortedQuads;
+    private final int[] sortOffsets = new int[513];
+    private int translucentQuads;
+    private boolean frontToBack;
+    private BufferStreamingStrategy sort_stream;
+    /**
+     * Set by {@link Renderers#draw()} so that translucent quads are left for the translucent pass, drawn once the
+     * opaque quads of every renderer are, see {@link #drawDeferred(boolean)}.
+     */
+    boolean deferTranslucent;
+    /**
+     * Set by {@link Renderers#draw()} along with {@link #deferTranslucent} when the translucent pass is the OIT one,
+     * which needs {@link #oitReady()}.
+     */
+    boolean deferOIT;
+    /*
+    * Sorted range of the translucent quads left for the translucent pass
+    * */
+    private int deferredFirst, deferredQuads;
+    /**
+     * Set by {@link Renderers#draw()} when the command queue is enabled, so that the pending quads become commands
+     * of the queue instead of draw calls, see {@link #enqueueQuads(int)}.
+     */
+    DrawQueue queue;
+    /**
+     * Layer of the commands of this renderer, see {@link Renderers#layer(WorldRenderer, int)}.
+     */
+    int layer;
+    /*
+    * Whether the last submission was left to the queue, whether its commands draw sorted ranges, and the capacity
+    * to grow to once the pending quads are drawn, 0 if none
+    * */
+    private boolean queued, queuedSorted;
+    private int pendingGrowth;
 
     /**
      * Ensures that quadCapacity is the closest possible to a power of two before calling
-     * {@link #AbstractQuadRenderer(int, VertexFormat, Void)}.
+     * {@link #AbstractQuadRenderer(int, int, VertexFormat, boolean, BufferStreamingStrategy.Factory, Void)},
+     * with {@link #DEFAULT_RING_SEGMENTS} segments, indexed quads and the selected streaming strategy.
      * @param quadCapacity the quad capacity
      * @param format the VertexFormat
-     * @see #AbstractQuadRenderer(int, VertexFormat, Void)
+     * @see #AbstractQuadRenderer(int, int, VertexFormat, boolean, BufferStreamingStrategy.Factory, Void)
      */
     protected AbstractQuadRenderer(int quadCapacity, VertexFormat format) {
-        this(closestQuadCapacityToPowerOfTwo(quadCapacity, format.stride(0)), format, null);
+        this(quadCapacity, DEFAULT_RING_SEGMENTS, format);
+    }
+
+    /**
+     * Ensures that quadCapacity is the closest possible to a power of two before calling
+     * {@link #AbstractQuadRenderer(int, int, VertexFormat, boolean, BufferStreamingStrategy.Factory, Void)},
+     * with indexed quads and the selected streaming strategy.
+     * @param quadCapacity the quad capacity
+     * @param segments the number of segments of the streamed buffers
+     * @param format the VertexFormat
+     * @see #AbstractQuadRenderer(int, int, VertexFormat, boolean, BufferStreamingStrategy.Factory, Void)
+     */
+    protected AbstractQuadRenderer(int quadCapacity, int segments, VertexFormat format) {
+        this(quadCapacity, segments, format, false);
+    }
+
+    /**
+     * Ensures that quadCapacity is the closest possible to a power of two before calling
+     * {@link #AbstractQuadRenderer(int, int, VertexFormat, boolean, BufferStreamingStrategy.Factory, Void)},
+     * with the selected streaming strategy (see {@link BufferStreamingStrategies#selected()}).
+     * @param quadCapacity the quad capacity
+     * @param segments the number of segments of the streamed buffers
+     * @param format the VertexFormat
+     * @param expanded whether each quad is a single instanced record, see {@link #expanded}
+     * @see #AbstractQuadRenderer(int, int, VertexFormat, boolean, BufferStreamingStrategy.Factory, Void)
+     */
+    protected AbstractQuadRenderer(int quadCapacity, int segments, VertexFormat format, boolean expanded) {
+        this(quadCapacity, segments, format, expanded, BufferStreamingStrategies.selected());
+    }
+
+    /**
+     * Ensures that quadCapacity is the closest possible to a power of two before calling
+     * {@link #AbstractQuadRenderer(int, int, VertexFormat, boolean, BufferStreamingStrategy.Factory, Void)}.
+     * @param quadCapacity the quad capacity
+     * @param segments the number of segments of the streamed buffers
+     * @param format the VertexFormat
+     * @param expanded whether each quad is a single instanced record, see {@link #expanded}
+     * @param streaming how the buffers are streamed, see {@link BufferStreamingStrategies}
+     * @see #AbstractQuadRenderer(int, int, VertexFormat, boolean, BufferStreamingStrategy.Factory, Void)
+     */
+    protected AbstractQuadRenderer(int quadCapacity, int segments, VertexFormat format, boolean expanded,
+                                   BufferStreamingStrategy.Factory streaming) {
+        this(roundQuadCapacity(quadCapacity, format.stride(VBO_BDG) * (expanded ? 1 : 4)), segments, format,
+                expanded, streaming, null);
     }
 
     /**
      * Create the quad renderer, assuming <code>quadCapacity</code> is the closest possible to a power of two.
+     * The vertex buffer is streamed by a {@link BufferStreamingStrategy} of <code>segments</code> segments, each one
+     * holding <code>quadCapacity</code> quads. Each {@link #GPU()} call consumes a segment.
+     * <p>
+     * Indexed quads are 4 vertices drawn through a static EBO, either with a single ranged draw or with MDI if
+     * the format has per-quad attributes (see {@link #indirect}).
+     * Expanded quads are a single record per quad, read with a divisor of 1 from {@link #VBO_BDG}: the vertex shader
+     * computes the 4 corners out of <code>gl_VertexID</code>, and there is no EBO nor indirect buffer at all.
      * @param quadCapacity the closest quad capacity possible to a given power of two
+     * @param segments the number of segments of the streamed buffers
      * @param format the VertexFormat
+     * @param expanded whether each quad is a single instanced record
+     * @param streaming how the buffers are streamed, see {@link BufferStreamingStrategies}
      * @param sig here to differentiate 2 constructors
-     * @see #AbstractQuadRenderer(int, VertexFormat)
+     * @see #AbstractQuadRenderer(int, int, VertexFormat, boolean, BufferStreamingStrategy.Factory)
      */
     @SuppressWarnings("unused")
-    protected AbstractQuadRenderer(int quadCapacity, VertexFormat format, Void sig) {
+    protected AbstractQuadRenderer(int quadCapacity, int segments, VertexFormat format, boolean expanded,
+                                   BufferStreamingStrategy.Factory streaming, Void sig) {
+        this.streaming = Objects.requireNonNull(streaming);
         this.format = format;
+        this.expanded = expanded;
+        indirect = !expanded && Arrays.stream(format.elements())
+                .anyMatch(el -> el.binding != VBO_BDG && el.fetch == VertexFormat.Fetch.ATTRIB);
+        pulled = format.pulled(VBO_BDG);
+        if (format.fetch(VBO_BDG) == VertexFormat.Fetch.PER_BATCH)
+            throw new IllegalArgumentException("The vertices are streamed, they cannot be fetched per batch");
+        if (pulled && expanded)
+            throw new IllegalArgumentException("Expanded quads are instanced records, they cannot be pulled");
         quad_capacity = quadCapacity;
-        int vbo_stride = format.stride(VBO_BDG);
+        vbo_stride = format.stride(VBO_BDG);
+        quad_stride = expanded ? vbo_stride : vbo_stride << 2;
+        sortKeys = new short[quadCapacity];
         vao = glCreateVertexArrays();
-        ebo = glCreateBuffers();
-        vbo = glCreateBuffers();
-        ibo = glCreateBuffers();
-        glVertexArrayVertexBuffer(vao, VBO_BDG, vbo, 0, vbo_stride);
-        glVertexArrayElementBuffer(vao, ebo);
+        vbo_stream = createVertexStream(segments);
+        vbo_data = vbo_stream.data();
+        if (!pulled)
+            glVertexArrayVertexBuffer(vao, VBO_BDG, vbo_stream.buffer(), 0, vbo_stride);
         format.attribSetup(vao);
+        if (expanded)
+            glVertexArrayBindingDivisor(vao, VBO_BDG, 1);
+        else createIndexBuffers();
+    }
 
+    /*
+    * Pulled vertices are bound with glBindBufferRange, which has alignment requirements on the offset
+    * */
+    private BufferStreamingStrategy createVertexStream(int segments) {
+        return streaming.create(MathsTools.roundPowerOfTwo(quad_capacity * quad_stride), segments,
+                pulled ? glGetInteger(GL_SHADER_STORAGE_BUFFER_OFFSET_ALIGNMENT) : 1);
+    }
 
-        long vbo_size = MathsTools.roundPowerOfTwo(quad_capacity * 4 * vbo_stride);
-        int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT;
-        glNamedBufferStorage(vbo, vbo_size, flags);
-        vbo_data = Objects.requireNonNull(glMapNamedBufferRange(vbo, 0, vbo_size,
-                flags | GL_MAP_FLUSH_EXPLICIT_BIT));
+    /**
+     * Creates the EBO for {@link #quad_capacity} quads and attaches it to the VAO, as well as the indirect buffer
+     * if the quads are drawn {@link #indirect}ly.
+     */
+    private void createIndexBuffers() {
+        ebo = createQuadEBO(quad_capacity);
+        glVertexArrayElementBuffer(vao, ebo);
+        if (indirect)
+            ibo = createQuadIBO(quad_capacity);
+    }
 
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            glNamedBufferStorage(ebo, wrap(ModelUtils.genQuadIndicesS(quad_capacity), stack), 0);
+    /**
+     * @param quads the number of quads
+     * @return a new immutable EBO holding the uint indices of <code>quads</code> quads
+     */
+    static int createQuadEBO(int quads) {
+        int ebo = glCreateBuffers();
+        IntBuffer ebo_data = memAllocInt(quads * 6);
+        try {
+            glNamedBufferStorage(ebo, ebo_data.put(ModelUtils.genQuadIndicesI(quads)).flip(), 0);
+        } finally {
+            memFree(ebo_data);
+        }
+        return ebo;
+    }
 
-            IntBuffer ibo_data = stack.mallocInt(quad_capacity * 5);
-            int baseVertex = 0;
-            for (int i = 0; i < quad_capacity; i++) {
-                ibo_data.put(6).put(1).put(0).put(baseVertex).put(i);
-                baseVertex += 4;
-            }
-            bindVAO(vao);
-            bindIBO(ibo);
-            glBufferStorage(GL_DRAW_INDIRECT_BUFFER, ibo_data.flip(), 0);
+    /**
+     * @param quads the number of quads
+     * @return a new immutable indirect buffer holding one draw command per quad, each one with its own
+     * <code>baseInstance</code>
+     */
+    static int createQuadIBO(int quads) {
+        int ibo = glCreateBuffers();
+        IntBuffer ibo_data = memAllocInt(quads * 5);
+        try {
+            for (int i = 0; i < quads; i++)  // the first 6 indices, offset by baseVertex
+                ibo_data.put(6).put(1).put(0).put(i << 2).put(i);
+            glNamedBufferStorage(ibo, ibo_data.flip(), 0);
+        } finally {
+            memFree(ibo_data);
         }
+        return ibo;
     }
 
     @Override
@@ -101,6 +324,16 @@ public abstract class AbstractQuadRenderer implements WorldRenderer {
         shaderProgram = attachedProgram;
     }
 
+    /**
+     * Attaches the program used to draw translucent quads when weighted blended OIT is enabled
+     * (see {@link Renderers#enableOIT()}), typically built out of
+     * {@link com.xenon.opengl.debug.Circe#weightedBlendedVariant(String)}.
+     * @param oitProgram the program
+     */
+    public void buildOIT(ShaderProgram oitProgram) {
+        this.oitProgram = oitProgram;
+    }
+
     @Override
     public VertexFormat format() {
         return format;
@@ -132,45 +365,577 @@ public abstract class AbstractQuadRenderer implements WorldRenderer {
 
     @Override
     public void endVertex() {
-        vertexCount++;
+        if ((++vertexCount & 3) == 0)
+            endQuad();
+    }
+
+    /**
+     * Called once the 4th vertex of a quad has been ended.
+     * Records the sort key of the quad, queuing it as translucent if {@link com.xenon.glfw.GLTools#blend} is set,
+     * then ensures there is room for the next quad, according to {@link #overflowPolicy}.
+     * <p>
+     * Keys are laid out so that a single ascending sort puts opaque quads first, in submission order or
+     * front to back (see {@link #sortFrontToBack(boolean)}), then translucent quads back to front.
+     */
+    protected void endQuad() {
+        int z = currentZLevel() & 255;
+        if (blend) {
+            sortKeys[(vertexCount >> 2) - 1] = (short) (511 - z);
+            translucentQuads++;
+        } else sortKeys[(vertexCount >> 2) - 1] = (short) (frontToBack ? z : 0);
+        if (vertexCount >> 2 == quad_capacity) switch (overflowPolicy) {
+            case FLUSH -> {
+                spilledQuads += quad_capacity;
+                submit();
+            }
+            case GROW -> grow(roundQuadCapacity(quad_capacity << 1, quad_stride));
+        }
+    }
+
+    /**
+     * @return the z-level of the quad being ended, ascending z-levels being drawn front to back.
+     * 0 if the renderer has no notion of depth
+     */
+    protected int currentZLevel() {
+        return 0;
+    }
+
+    /**
+     * Records the sort key of a quad reserved by {@link #reserveQuad()}. Concurrently recorded quads are opaque.
+     * @param quad the index of the quad
+     * @param zlevel the z-level of the quad
+     */
+    protected final void concurrentSortKey(int quad, int zlevel) {
+        sortKeys[quad] = (short) (frontToBack ? zlevel & 255 : 0);
+    }
+
+    /**
+     * Address of the first vertex of the next quad in the mapped buffer. Writing <code>4 * vbo_stride</code> bytes
+     * from there is always safe, since {@link #endQuad()} makes room for the next quad as soon as a quad ends.
+     * Quads written this way must be committed with {@link #commitQuad()}.
+     * @return the raw address of the next quad
+     */
+    protected final long quadAddress() {
+        return memAddress(vbo_data);
+    }
+
+    /**
+     * Commits a quad written at {@link #quadAddress()}, as if its 4 vertices went through {@link #endVertex()}.
+     */
+    protected final void commitQuad() {
+        vbo_data.position(vbo_data.position() + quad_stride);
+        vertexCount += 4;
+        endQuad();
+    }
+
+    /**
+     * Reserves a quad slot in the current segment for the concurrent recording mode. Thread-safe and lock-free:
+     * a single fetch-and-add on the quad cursor.
+     * <p>
+     * The quad is written at {@link #quadAddress(int)} and is drawn by the next {@link #GPU()} call, which must be
+     * separated from the recording threads by a synchronization point (e.g. joining them). A batch is recorded
+     * either concurrently or through the single-threaded API, never both. There is no overflow flush in this mode:
+     * quads past {@link #quad_capacity} are dropped, and {@link OverflowPolicy#GROW} only grows at the next
+     * {@link #GPU()}. Concurrently recorded quads are never queued as translucent, so order is not guaranteed
+     * under blending.
+     * @return the index of the reserved quad in the current segment, or -1 if the quad has to be dropped
+     */
+    protected final int reserveQuad() {
+        int quad = reservedQuads.getAndIncrement();
+        return quad < quad_capacity ? quad : -1;
+    }
+
+    /**
+     * @param quad the index of a quad reserved by {@link #reserveQuad()}
+     * @return the raw address of the quad in the current segment
+     */
+    protected final long quadAddress(int quad) {
+        return memAddress0(vbo_data) + (long) quad * quad_stride;
+    }
+
+    /**
+     * Makes the concurrently recorded quads pending, as if they were written by the single-threaded API.
+     * @param quads the number of quads actually reserved, at most {@link #quad_capacity}
+     */
+    protected void commitReservedQuads(int quads) {
+        vertexCount = quads << 2;
+        vbo_data.position(quads * quad_stride);
     }
 
     @Override
     public void GPU() {
+        int reserved = reservedQuads.getAndSet(0), dropped = 0;
+        if (reserved != 0) {
+            dropped = Math.max(reserved - quad_capacity, 0);
+            commitReservedQuads(reserved - dropped);
+        }
+        int quads = spilledQuads + (vertexCount >> 2);
+        if (quads + dropped > highWaterMark)
+            highWaterMark = quads + dropped;
+        spilledQuads = 0;
+        droppedQuads = dropped;
+        submit();
+        if (dropped != 0 && overflowPolicy == OverflowPolicy.GROW) {
+            int capacity = roundQuadCapacity(Math.max(quad_capacity << 1, quads + dropped), quad_stride);
+            if (queued || deferredQuads != 0)   // the current segments are still to be drawn
+                pendingGrowth = capacity;
+            else grow(capacity);
+        }
+    }
+
+    /**
+     * Actually draws the pending quads, without touching the high-water mark. While the program is still being
+     * compiled (see {@link ShaderProgram#buildAsync(String, String)}), the pending quads are dropped instead.
+     */
+    protected void submit() {
         if (vertexCount == 0)   return;
+        if (!shaderProgram.ready()) {
+            translucentQuads = 0;
+            postGPU();
+            return;
+        }
         preGPU();
-        glMultiDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_SHORT, 0, vertexCount >> 2, 0);
+        drawQuads(vertexCount >> 2);
+        if (deferredQuads == 0 && !queued)
+            postGPU();
+    }
+
+    /**
+     * Issues the draw call(s) of the pending quads, everything being bound by {@link #preGPU()}.
+     * <p>
+     * Without translucent quads nor front-to-back sorting, the quads are drawn in submission order with the current
+     * blending state. Otherwise, the sort keys recorded by {@link #endQuad()} are counting-sorted and the sorted
+     * order is written to a streamed index buffer (indirect commands for {@link #indirect} or {@link #expanded}
+     * quads), leaving the vertex data untouched. Opaque quads are then drawn with blending disabled, followed by
+     * translucent quads with blending enabled and depth writes disabled: at most 2 draw calls, whatever the number
+     * of blending toggles while recording. If {@link #deferTranslucent} is set, translucent quads are left for
+     * {@link #drawDeferred(boolean)} instead, the current segments staying untouched until then. If {@link #queue}
+     * is set, nothing is drawn at all, see {@link #enqueueQuads(int)}.
+     * @param quads the number of pending quads
+     */
+    protected void drawQuads(int quads) {
+        if (queue != null) {
+            enqueueQuads(quads);
+            return;
+        }
+        if (translucentQuads == 0 && !frontToBack) {
+            drawUnsortedQuads(quads);
+            return;
+        }
+        writeSortedQuads(quads);
+        int translucent = translucentQuads, opaque = quads - translucent;
+        translucentQuads = 0;
+        boolean blending = blend;
+        if (opaque != 0) {
+            disableBlend();
+            drawSortedQuads(0, opaque);
+        }
+        if (translucent != 0 && deferTranslucent && (!deferOIT || oitReady())) {
+            deferredFirst = opaque;
+            deferredQuads = translucent;
+        } else if (translucent != 0) {
+            enableBlend();
+            glDepthMask(false);
+            drawSortedQuads(opaque, translucent);
+            glDepthMask(true);
+        }
+        if (blending)
+            enableBlend();
+        else disableBlend();
+        if (!expanded && !indirect)
+            glVertexArrayElementBuffer(vao, ebo);
+        if (deferredQuads == 0)
+            sort_stream.advance();
+    }
+
+    /*
+    * Draws the pending quads in submission order, the default index or indirect buffer being bound
+    * */
+    private void drawUnsortedQuads(int quads) {
+        if (expanded)
+            glDrawArraysInstanced(GL_TRIANGLE_STRIP, 0, 4, quads);
+        else if (indirect)
+            glMultiDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, 0, quads, 0);
+        else glDrawElements(GL_TRIANGLES, quads * 6, GL_UNSIGNED_INT, 0);
+    }
+
+    /**
+     * Turns the pending quads into commands of {@link #queue}: a single command drawing them in submission order
+     * if there is nothing to sort, otherwise one for the sorted opaque quads and one per z-level of the translucent
+     * quads, back to front. The current segments stay untouched until {@link #finishQueued()}.
+     * @param quads the number of pending quads
+     */
+    private void enqueueQuads(int quads) {
+        queued = true;
+        int program = shaderProgram.programId, texture = textureKey();
+        if (translucentQuads == 0 && !frontToBack) {
+            queuedSorted = false;
+            queue.add(DrawQueue.key(layer, false, 0, program, vao, texture), this, -1, quads);
+            return;
+        }
+        writeSortedQuads(quads);
+        queuedSorted = true;
+        int opaque = quads - translucentQuads;
+        translucentQuads = 0;
+        if (opaque != 0)
+            queue.add(DrawQueue.key(layer, false, 0, program, vao, texture), this, 0, opaque);
+        for (int first = opaque, last; first < quads; first = last) {
+            int key = sortKeys[sortedQuads[first]];
+            for (last = first + 1; last < quads && sortKeys[sortedQuads[last]] == key; last++);
+            queue.add(DrawQueue.key(layer, true, key, program, vao, texture), this, first, last - first);
+        }
+    }
+
+    /**
+     * Draws a command of the queue, the blending and depth writes states being set by {@link DrawQueue}.
+     * @param first the first quad of the range in sorted order, -1 for all the pending quads in submission order
+     * @param count the number of quads
+     * @param oit whether to draw with {@link #oitProgram}, into the targets bound by {@link WeightedBlendedOIT#begin()}
+     */
+    void drawQueued(int first, int count, boolean oit) {
+        bindBuffers();
+        (oit ? oitProgram : shaderProgram).bind();
+        bindVAO(vao);
+        if (first < 0) {
+            bindIBO(ibo);
+            drawUnsortedQuads(count);
+        } else {
+            bindSortedQuads();
+            drawSortedQuads(first, count);
+        }
+    }
+
+    /**
+     * Moves on to the next segments once the queued commands of this renderer are drawn.
+     */
+    void finishQueued() {
+        if (!queued)    return;
+        if (queuedSorted) {
+            if (!expanded && !indirect)
+                glVertexArrayElementBuffer(vao, ebo);
+            sort_stream.advance();
+        }
+        queued = false;
+        postGPU();
+        growIfPending();
+    }
+
+    /*
+    * Applies the growth requested by GPU() while the current segments were still to be drawn
+    * */
+    private void growIfPending() {
+        if (pendingGrowth != 0) {
+            grow(pendingGrowth);
+            pendingGrowth = 0;
+        }
+    }
+
+    /**
+     * @return the texture bound per draw call by {@link #bindTextures()}, for the sort keys of {@link DrawQueue}.
+     * 0 if none
+     */
+    protected int textureKey() {
+        return 0;
+    }
+
+    /**
+     * @return whether translucent quads can be accumulated by {@link #oitProgram}, which may still be compiling
+     */
+    boolean oitReady() {
+        return oitProgram != null && oitProgram.ready();
+    }
+
+    /**
+     * @return whether translucent quads were left for {@link #drawDeferred(boolean)} by the last submission
+     */
+    boolean deferredTranslucent() {
+        return deferredQuads != 0;
+    }
+
+    /**
+     * Draws the translucent quads left by the last submission, then moves on to the next segments. The blending
+     * and depth writes states are set by the caller.
+     * @param oit whether to draw with {@link #oitProgram}, into the targets bound by {@link WeightedBlendedOIT#begin()}
+     */
+    void drawDeferred(boolean oit) {
+        if (deferredQuads == 0) return;
+        bindBuffers();
+        (oit ? oitProgram : shaderProgram).bind();
+        bindVAO(vao);
+        bindSortedQuads();
+        drawSortedQuads(deferredFirst, deferredQuads);
+        if (!expanded && !indirect)
+            glVertexArrayElementBuffer(vao, ebo);
+        deferredQuads = 0;
+        sort_stream.advance();
         postGPU();
+        growIfPending();
     }
 
     /**
-     * Ensures OpenGL get the correct data. binds everything
+     * Counting-sorts the pending quads on their keys, stable, and writes them in order to the current segment of
+     * the sort stream: 6 indices per quad, or one indirect command.
+     * @param quads the number of pending quads
+     */
+    private void writeSortedQuads(int quads) {
+        if (sort_stream == null) {
+            sortedQuads = new int[quad_capacity];
+            sort_stream = createSortStream(vbo_stream.segments());
+        }
+        int[] order = sortedQuads, offsets = sortOffsets;
+        Arrays.fill(offsets, 0);
+        for (int i = 0; i < quads; i++)
+            offsets[sortKeys[i] + 1]++;
+        for (int k = 1; k < offsets.length; k++)
+            offsets[k] += offsets[k - 1];
+        for (int i = 0; i < quads; i++)
+            order[offsets[sortKeys[i]]++] = i;
+
+        ByteBuffer data = sort_stream.data();
+        long a = memAddress(data);
+        if (expanded) {
+            for (int i = 0; i < quads; i++, a += 16) {
+                memPutInt(a, 4);
+                memPutInt(a + 4, 1);
+                memPutInt(a + 8, 0);
+                memPutInt(a + 12, order[i]);
+            }
+        } else if (indirect) {
+            for (int i = 0; i < quads; i++, a += 20) {
+                int q = order[i];
+                memPutInt(a, 6);
+                memPutInt(a + 4, 1);
+                memPutInt(a + 8, 0);
+                memPutInt(a + 12, q << 2);
+                memPutInt(a + 16, q);
+            }
+        } else {
+            for (int i = 0; i < quads; i++, a += 24) {
+                int v = order[i] << 2;
+                memPutInt(a, v);
+                memPutInt(a + 4, v + 1);
+                memPutInt(a + 8, v + 2);
+                memPutInt(a + 12, v + 2);
+                memPutInt(a + 16, v + 3);
+                memPutInt(a + 20, v);
+            }
+        }
+        data.position(quads * sortRecordSize());
+        sort_stream.flush();
+        bindSortedQuads();
+    }
+
+    /*
+    * Draws from the sort stream: as the indirect buffer, or as the index buffer of the VAO
+    * */
+    private void bindSortedQuads() {
+        if (expanded || indirect)
+            bindIBO(sort_stream.buffer());
+        else glVertexArrayElementBuffer(vao, sort_stream.buffer());
+    }
+
+    /**
+     * @param first the index of the first quad in sorted order
+     * @param count the number of quads to draw
+     */
+    private void drawSortedQuads(int first, int count) {
+        long offset = sort_stream.offset() + (long) first * sortRecordSize();
+        if (expanded)
+            glMultiDrawArraysIndirect(GL_TRIANGLE_STRIP, offset, count, 0);
+        else if (indirect)
+            glMultiDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, offset, count, 0);
+        else glDrawElements(GL_TRIANGLES, count * 6, GL_UNSIGNED_INT, offset);
+    }
+
+    /*
+    * A DrawArraysIndirectCommand, a DrawElementsIndirectCommand or 6 uint indices per quad
+    * */
+    private int sortRecordSize() {
+        return expanded ? 16 : indirect ? 20 : 24;
+    }
+
+    private BufferStreamingStrategy createSortStream(int segments) {
+        return streaming.create((long) quad_capacity * sortRecordSize(), segments, 1);
+    }
+
+    @Override
+    public void sortFrontToBack(boolean enabled) {
+        if (vertexCount != 0 && enabled != frontToBack)
+            throw new IllegalStateException("Cannot toggle sorting in the middle of a batch");
+        frontToBack = enabled;
+    }
+
+    @Override
+    public void overflowPolicy(OverflowPolicy policy) {
+        overflowPolicy = Objects.requireNonNull(policy);
+    }
+
+    @Override
+    public int highWaterMark() {
+        return highWaterMark;
+    }
+
+    @Override
+    public int droppedQuads() {
+        return droppedQuads;
+    }
+
+    @Override
+    public void viewport(float x1, float y1, float x2, float y2) {
+        viewX1 = Math.min(x1, x2);
+        viewY1 = Math.min(y1, y2);
+        viewX2 = Math.max(x1, x2);
+        viewY2 = Math.max(y1, y2);
+        viewport = true;
+    }
+
+    @Override
+    public void disableViewport() {
+        viewport = false;
+    }
+
+    @Override
+    public boolean cull(float x1, float y1, float x2, float y2, int argb) {
+        if (argb >>> 24 == 0 && blend     // without blending, alpha is simply ignored
+                || viewport && outsideViewport(x1, y1, x2, y2)) {
+            culledQuads++;
+            return true;
+        }
+        emittedQuads++;
+        return false;
+    }
+
+    /*
+    * Corners may come in any order, e.g. for quads drawn mirrored
+    * */
+    private boolean outsideViewport(float x1, float y1, float x2, float y2) {
+        return Math.min(x1, x2) >= viewX2 || Math.max(x1, x2) <= viewX1
+                || Math.min(y1, y2) >= viewY2 || Math.max(y1, y2) <= viewY1;
+    }
+
+    @Override
+    public int culledQuads() {
+        return culledQuads;
+    }
+
+    @Override
+    public int emittedQuads() {
+        return emittedQuads;
+    }
+
+    @Override
+    public void resetCullingCounters() {
+        culledQuads = emittedQuads = 0;
+    }
+
+    /**
+     * Reallocates the vertex buffer, the EBO and the indirect buffer if any to hold <code>quadCapacity</code> quads,
+     * keeping the pending vertices. The old buffers are deleted, OpenGL keeps them alive until the GPU is done.
+     * @param quadCapacity the new quad capacity, assumed to be the closest possible to a power of two
+     */
+    protected void grow(int quadCapacity) {
+        quad_capacity = quadCapacity;
+        sortKeys = Arrays.copyOf(sortKeys, quadCapacity);
+        if (sort_stream != null) {
+            sortedQuads = new int[quadCapacity];
+            unbindIBO();
+            sort_stream.dispose();
+            sort_stream = createSortStream(vbo_stream.segments());
+        }
+
+        BufferStreamingStrategy old = vbo_stream;
+        vbo_stream = createVertexStream(old.segments());
+        vbo_data = vbo_stream.data().put(old.data().flip());
+        unbindVBO();
+        old.dispose();
+
+        if (expanded)   return;
+        if (indirect) {
+            unbindIBO();
+            glDeleteBuffers(ibo);
+        }
+        unbindEBO();
+        glDeleteBuffers(ebo);
+        createIndexBuffers();
+    }
+
+    /**
+     * Copies the pending quads into immutable buffers attached to <code>batch</code>. The pending quads are then
+     * discarded by {@link BakedBatch}. Subclasses with additional buffers must bake them as well.
+     * @param batch the batch being baked
+     */
+    protected void bakeInto(BakedBatch batch) {
+        batch.attach(VBO_BDG, copyPending(vbo_stream), vbo_stride);
+    }
+
+    /**
+     * Copies the written range of the current segment of <code>stream</code> into a new immutable buffer.
+     * The copy happens on the GPU, before the next {@link BufferStreamingStrategy#advance()}.
+     * @param stream the streamed buffer
+     * @return the new buffer
+     */
+    protected static int copyPending(BufferStreamingStrategy stream) {
+        int size = stream.data().position();
+        stream.flush();
+        int copy = glCreateBuffers();
+        glNamedBufferStorage(copy, size, 0);
+        glCopyNamedBufferSubData(stream.buffer(), copy, stream.offset(), 0, size);
+        return copy;
+    }
+
+    /**
+     * Ensures OpenGL get the correct data, flushing only the dirty range of the current segment
+     * and pointing the VAO to it. binds everything
      */
     protected void preGPU() {
-        glFlushMappedNamedBufferRange(vbo, 0, vbo_data.position());
+        vbo_stream.flush();
+        bindBuffers();
         shaderProgram.bind();
         bindVAO(vao);
         bindIBO(ibo);
     }
 
     /**
-     * Clear buffers and reset vertex count.
+     * Points the VAO, or the shader storage bindings of pulled data, to the current segments of the streamed
+     * buffers, already flushed.
+     */
+    protected void bindBuffers() {
+        if (pulled)
+            glBindBufferRange(GL_SHADER_STORAGE_BUFFER, VBO_BDG, vbo_stream.buffer(), vbo_stream.offset(),
+                    vbo_stream.segmentSize());
+        else glVertexArrayVertexBuffer(vao, VBO_BDG, vbo_stream.buffer(), vbo_stream.offset(), vbo_stride);
+        bindTextures();
+    }
+
+    /**
+     * Binds the textures sampled by the shader, if any, called by {@link #bindBuffers()} and by
+     * {@link BakedBatch#draw()}.
+     */
+    protected void bindTextures() {}
+
+    /**
+     * Moves on to the next segment of the streamed buffers and reset vertex count.
      */
     protected void postGPU() {
-        vbo_data.clear();
+        vbo_data = vbo_stream.advance();
         vertexCount = 0;
     }
 
     @Override
     public void dispose() {
-        shaderProgram.dispose();
+        if (shaderProgram != null)  // e.g. renderers recording a BakedBatch
+            shaderProgram.dispose();
+        if (oitProgram != null)
+            oitProgram.dispose();
         unbindVAO();
         glDeleteVertexArrays(vao);
         unbindVBO();
-        glDeleteBuffers(vbo);
+        vbo_stream.dispose();
         unbindIBO();
         glDeleteBuffers(ibo);
         unbindEBO();
         glDeleteBuffers(ebo);
+        if (sort_stream != null)
+            sort_stream.dispose();
     }
 }
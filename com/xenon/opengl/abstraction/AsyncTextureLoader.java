@@ -0,0 +1,349 @@
+package com.xenon.opengl.abstraction;
+
+import com.xenon.glfw.OpenGL;
+import com.xenon.glfw.ResourceThread;
+import com.xenon.glfw.ResourceUtils;
+import com.xenon.glfw.abstraction.Disposable;
+import org.lwjgl.system.MemoryStack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.xenon.glfw.GLTools.bindPBO;
+import static com.xenon.glfw.GLTools.unbindPBO;
+import static org.lwjgl.opengl.GL45.*;
+import static org.lwjgl.stb.STBImage.*;
+import static org.lwjgl.system.MemoryStack.stackPush;
+import static org.lwjgl.system.MemoryUtil.*;
+
+/**
+ * Loads textures without stalling the render thread.
+ * <p>
+ * Image files are memory-mapped (or read from the classpath) and decoded by stb on a pool of worker threads, which
+ * then copy the texels into a persistently mapped pixel unpack buffer used as a ring. The render thread, in
+ * {@link #update()}, only creates the textures and issues <code>glTextureSubImage2D</code> from the buffer, fencing
+ * each upload so that its staging range is reused once the GPU has consumed it. Workers wait for staging room
+ * rather than the render thread. Images bigger than the whole staging buffer are uploaded from client memory.
+ * <p>
+ * Given a {@link ResourceThread}, even the texture creations and uploads are left to its shared context, the render
+ * thread only handing the decoded images over.
+ * <p>
+ * Until it is uploaded, a {@link Texture} reads as a 1x1 white placeholder texture.
+ */
+@OpenGL("Requires OpenGL 4.5 (DSA + Persistent Mapping + Sync Objects)")
+public class AsyncTextureLoader implements Disposable {
+
+    private final ExecutorService workers;
+    private final ResourceThread uploader;
+    private final int pbo;
+    private final long capacity, mapping;
+    private final int placeholder;
+    private final ConcurrentLinkedQueue<Decoded> decoded = new ConcurrentLinkedQueue<>();
+
+    /*
+    * Staging ranges in allocation order, the write offset and the bytes taken, guarded by this
+    * */
+    private final ArrayDeque<Staging> staging = new ArrayDeque<>();
+    private long head, used;
+
+    /**
+     * @param stagingBytes the size in bytes of the staging buffer, bounding the texels in flight
+     * @param workers the number of decoding threads
+     */
+    public AsyncTextureLoader(long stagingBytes, int workers) {
+        this(stagingBytes, workers, null);
+    }
+
+    /**
+     * @param stagingBytes the size in bytes of the staging buffer, bounding the texels in flight
+     * @param workers the number of decoding threads
+     * @param uploader the thread creating and uploading the textures, null for the render thread
+     */
+    public AsyncTextureLoader(long stagingBytes, int workers, ResourceThread uploader) {
+        if (stagingBytes < 4 || workers < 1)
+            throw new IllegalArgumentException("Invalid loader: " + workers + " workers, " + stagingBytes
+                    + " bytes of staging");
+        this.workers = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "Texture decoder");
+            t.setDaemon(true);
+            return t;
+        });
+        this.uploader = uploader;
+
+        capacity = stagingBytes;
+        int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+        pbo = glCreateBuffers();
+        glNamedBufferStorage(pbo, capacity, flags);
+        mapping = memAddress(Objects.requireNonNull(glMapNamedBufferRange(pbo, 0, capacity, flags)));
+
+        placeholder = glCreateTextures(GL_TEXTURE_2D);
+        glTextureStorage2D(placeholder, 1, GL_RGBA8, 1, 1);
+        glClearTexImage(placeholder, 0, GL_RGBA, GL_UNSIGNED_BYTE, new int[]{-1});  // opaque white
+    }
+
+    /**
+     * Starts loading an image file as an RGBA8 texture.
+     * @param file the path of the image, on the file system or the classpath
+     * @return the texture, which becomes ready during a later {@link #update()}
+     */
+    public Texture load(Path file) {
+        Texture texture = new Texture();
+        workers.execute(() -> decode(texture, file));
+        return texture;
+    }
+
+    /*
+    * Worker side: maps or reads the file, decodes it and stages the texels
+    * */
+    private void decode(Texture texture, Path file) {
+        ByteBuffer encoded = null, pixels = null;
+        try (MemoryStack stack = stackPush()) {
+            IntBuffer w = stack.mallocInt(1), h = stack.mallocInt(1), comp = stack.mallocInt(1);
+            if (Files.isReadable(file)) try (FileChannel channel = FileChannel.open(file)) {
+                pixels = stbi_load_from_memory(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+                        w, h, comp, 4);
+            }
+            else pixels = stbi_load_from_memory(encoded = ResourceUtils.bytes(file), w, h, comp, 4);
+            if (pixels == null)
+                throw new IOException("Failed to decode " + file + ": " + stbi_failure_reason());
+
+            int width = w.get(0), height = h.get(0);
+            long size = (long) width * height * 4;
+            Staging range = null;
+            if (size <= capacity) {
+                range = reserve(size);
+                memCopy(memAddress(pixels), mapping + range.offset, size);
+                stbi_image_free(pixels);
+                pixels = null;
+            }
+            decoded.add(new Decoded(texture, width, height, range, pixels, null));
+        } catch (Exception e) {
+            if (pixels != null)
+                stbi_image_free(pixels);
+            decoded.add(new Decoded(texture, 0, 0, null, null, e));
+        } finally {
+            if (encoded != null)
+                memFree(encoded);
+        }
+    }
+
+    /**
+     * Takes <code>size</code> contiguous bytes of the ring, waiting for the GPU to release older ranges if needed.
+     */
+    private synchronized Staging reserve(long size) throws InterruptedException {
+        for (;;) {
+            if (used == 0)
+                head = 0;
+            long offset = head + size <= capacity ? head : 0;
+            long cost = offset == head ? size : capacity - head + size;    // wrapping wastes the end of the ring
+            if (used + cost <= capacity) {
+                Staging range = new Staging(offset, cost);
+                staging.add(range);
+                head = offset + size;
+                used += cost;
+                return range;
+            }
+            wait();
+        }
+    }
+
+    /**
+     * Uploads the textures decoded since the last call and completes their futures, then releases the staging
+     * ranges the GPU is done with. Must be called on the render thread, typically once per frame.
+     * <p>
+     * With a {@link ResourceThread}, the decoded textures are handed over to it instead, and their futures are
+     * completed by {@link ResourceThread#update()}.
+     */
+    public void update() {
+        for (Decoded d; (d = decoded.poll()) != null;) {
+            Texture texture = d.texture;
+            if (d.error != null)
+                texture.future.completeExceptionally(d.error);
+            else if (uploader == null)
+                texture.complete(upload(d, false), d);
+            else {
+                Decoded image = d;
+                uploader.submit(() -> upload(image, true)).whenComplete((id, e) -> {
+                    if (e != null)
+                        texture.future.completeExceptionally(e);
+                    else texture.complete(id, image);
+                });
+            }
+        }
+        release();
+    }
+
+    /**
+     * Creates the texture of a decoded image and uploads it, from the staging buffer if staged.
+     * @param shared whether we are on the loader thread, which must not touch the binding caches of
+     *               {@link com.xenon.glfw.GLTools}
+     * @return the texture id
+     */
+    private int upload(Decoded d, boolean shared) {
+        int id = glCreateTextures(GL_TEXTURE_2D);
+        glTextureStorage2D(id, 1, GL_RGBA8, d.width, d.height);
+        glTextureParameteri(id, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        glTextureParameteri(id, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        if (d.range != null) {
+            if (shared)
+                glBindBuffer(GL_PIXEL_UNPACK_BUFFER, pbo);
+            else bindPBO(pbo);
+            glTextureSubImage2D(id, 0, 0, 0, d.width, d.height, GL_RGBA, GL_UNSIGNED_BYTE, d.range.offset);
+            if (shared)
+                glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+            else unbindPBO();
+            long fence = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            synchronized (this) {
+                d.range.fence = fence;
+            }
+        } else {
+            glTextureSubImage2D(id, 0, 0, 0, d.width, d.height, GL_RGBA, GL_UNSIGNED_BYTE, d.pixels);
+            stbi_image_free(d.pixels);
+        }
+        return id;
+    }
+
+    /*
+    * Frees the oldest staging ranges whose upload has completed, in allocation order
+    * */
+    private synchronized void release() {
+        boolean released = false;
+        for (Staging range; (range = staging.peek()) != null && range.fence != NULL;) {
+            int status = glClientWaitSync(range.fence, 0, 0);
+            if (status != GL_ALREADY_SIGNALED && status != GL_CONDITION_SATISFIED)
+                break;
+            glDeleteSync(range.fence);
+            staging.poll();
+            used -= range.cost;
+            released = true;
+        }
+        if (released)
+            notifyAll();
+    }
+
+    /**
+     * @return the texture read by the textures not uploaded yet
+     */
+    public int placeholder() {
+        return placeholder;
+    }
+
+    /**
+     * Stops the workers and frees the staging buffer and the placeholder. Loaded textures are owned by the caller
+     * and stay alive, pending ones never complete. The {@link ResourceThread}, if any, must be disposed of first.
+     * <p>
+     * Blocks until the running decodes are over, as they may still be writing into the staging buffer.
+     */
+    @Override
+    public void dispose() {
+        workers.shutdownNow();
+        boolean interrupted = false;
+        while (!workers.isTerminated())
+            try {
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;     // unmapping under a running worker isn't an option
+            }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        for (Decoded d; (d = decoded.poll()) != null;)
+            if (d.pixels != null)
+                stbi_image_free(d.pixels);
+        synchronized (this) {
+            for (Staging range : staging)
+                if (range.fence != NULL)
+                    glDeleteSync(range.fence);
+            staging.clear();
+        }
+        glUnmapNamedBuffer(pbo);
+        glDeleteBuffers(pbo);
+        glDeleteTextures(placeholder);
+    }
+
+    /**
+     * A texture being loaded.
+     */
+    public final class Texture {
+
+        private final CompletableFuture<Texture> future = new CompletableFuture<>();
+        private volatile int id;
+        private int width, height;
+
+        private Texture() {}
+
+        private void complete(int id, Decoded d) {
+            width = d.width;
+            height = d.height;
+            this.id = id;
+            future.complete(this);
+        }
+
+        /**
+         * @return the texture id, or the {@link #placeholder()} while not ready
+         */
+        public int id() {
+            int id = this.id;
+            return id == 0 ? placeholder : id;
+        }
+
+        /**
+         * @return whether the texture was uploaded
+         */
+        public boolean ready() {
+            return id != 0;
+        }
+
+        /**
+         * @return the width of the texture, 0 while not ready
+         */
+        public int width() {
+            return width;
+        }
+
+        /**
+         * @return the height of the texture, 0 while not ready
+         */
+        public int height() {
+            return height;
+        }
+
+        /**
+         * @return a future completed on the render thread, by {@link #update()}, once the texture is uploaded, or
+         * exceptionally if the file couldn't be read or decoded
+         */
+        public CompletableFuture<Texture> future() {
+            return future;
+        }
+    }
+
+    /*
+    * A range of the staging buffer, and the fence of the upload reading it once submitted
+    * */
+    private static final class Staging {
+        final long offset, cost;
+        long fence;
+
+        Staging(long offset, long cost) {
+            this.offset = offset;
+            this.cost = cost;
+        }
+    }
+
+    /*
+    * A decoded image handed to the render thread, staged or in client memory if too big
+    * */
+    private record Decoded(Texture texture, int width, int height, Staging range, ByteBuffer pixels,
+                           Exception error) {}
+}
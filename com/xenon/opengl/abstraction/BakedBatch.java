@@ -0,0 +1,194 @@
+package com.xenon.opengl.abstraction;
+
+import com.xenon.glfw.GLTools;
+import com.xenon.glfw.OpenGL;
+import com.xenon.glfw.abstraction.Disposable;
+import com.xenon.opengl.VertexFormat;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import static com.xenon.glfw.GLTools.*;
+import static org.lwjgl.opengl.GL45.*;
+
+/**
+ * Retained geometry: quads recorded once through an {@link AbstractQuadRenderer}, usually with
+ * {@link com.xenon.opengl.RenderUtils} or a {@link com.xenon.ui.abstraction.UIContext}, then kept in immutable
+ * buffers with their own VAO built from the renderer's {@link com.xenon.opengl.VertexFormat}.
+ * Drawing the batch is a single draw command, without any CPU vertex write.
+ * <p>
+ * The batch is only baked again on the first {@link #draw()} following {@link #markDirty()}.
+ * Baking records through a private renderer of the same kind, sized after the previous bake and disposed right
+ * after, with {@link WorldRenderer.OverflowPolicy#GROW} so that the whole batch fits. The drawing renderer and its
+ * pending quads are left untouched. It must not happen while blending is enabled.
+ * <p>
+ * Formats reading {@link VertexFormat.Fetch#PER_BATCH} records aren't supported, the batch doesn't own the uniform
+ * buffers they come from.
+ */
+@OpenGL("Requires OpenGL 4.5 (DSA + Buffer Copies)")
+public class BakedBatch implements Disposable {
+
+    /**
+     * Initial quad capacity of the recording renderer for the first bake.
+     */
+    private static final int INITIAL_RECORDING_CAPACITY = 256;
+
+    private final AbstractQuadRenderer renderer;
+    private final IntFunction<? extends AbstractQuadRenderer> recording;
+    private final Consumer<WorldRenderer> recorder;
+
+    /*
+    * Baked buffers, indexed by binding
+    * */
+    private final int[] buffers;
+    private int vao, ebo, ibo, quads;
+    private boolean dirty = true;
+
+    /**
+     * Creates a batch, baked on the first {@link #draw()}.
+     * @param renderer the renderer whose shader is used for drawing
+     * @param recording creates the private renderer recording each bake out of a quad capacity, with the same format
+     *                  and quad layout as <code>renderer</code>, e.g. <code>q -> new POS2_COL_Renderer(q, 1)</code>.
+     *                  Its shader is never used
+     * @param recorder the draws to bake, fed with the recording renderer
+     * @throws IllegalArgumentException if the format of <code>renderer</code> reads
+     * {@link VertexFormat.Fetch#PER_BATCH} records
+     */
+    public BakedBatch(AbstractQuadRenderer renderer, IntFunction<? extends AbstractQuadRenderer> recording,
+                      Consumer<WorldRenderer> recorder) {
+        this.renderer = Objects.requireNonNull(renderer);
+        this.recording = Objects.requireNonNull(recording);
+        this.recorder = Objects.requireNonNull(recorder);
+        int bindings = 0;
+        for (var el : renderer.format.elements()) {
+            if (el.fetch == VertexFormat.Fetch.PER_BATCH)
+                throw new IllegalArgumentException("Cannot bake per-batch records of binding " + el.binding);
+            bindings = Math.max(bindings, el.binding + 1);
+        }
+        buffers = new int[bindings];
+    }
+
+    /**
+     * Invalidates the baked quads, the recorder runs again on the next {@link #draw()}.
+     */
+    public void markDirty() {
+        dirty = true;
+    }
+
+    /**
+     * @return whether the batch will be baked on the next {@link #draw()}
+     */
+    public boolean dirty() {
+        return dirty;
+    }
+
+    /**
+     * @return the number of baked quads
+     */
+    public int quads() {
+        return quads;
+    }
+
+    /**
+     * Draws the baked quads, baking them first if needed. The renderer's textures are bound the same way as when it
+     * draws, e.g. the texture array of layered renderers.
+     */
+    public void draw() {
+        if (dirty)
+            bake();
+        if (quads == 0) return;
+
+        renderer.shaderProgram.bind();
+        renderer.bindTextures();
+        bindVAO(vao);
+        for (int b = 0; b < buffers.length; b++)
+            if (buffers[b] != 0 && renderer.format.pulled(b))
+                glBindBufferBase(GL_SHADER_STORAGE_BUFFER, b, buffers[b]);
+
+        if (renderer.expanded)
+            glDrawArraysInstanced(GL_TRIANGLE_STRIP, 0, 4, quads);
+        else if (renderer.indirect) {
+            bindIBO(ibo);
+            glMultiDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, 0, quads, 0);
+        } else glDrawElements(GL_TRIANGLES, quads * 6, GL_UNSIGNED_INT, 0);
+    }
+
+    /**
+     * Records the quads through a new private renderer and copies them into new buffers.
+     * @throws RuntimeException if blending is enabled
+     * @throws IllegalArgumentException if the recording renderer doesn't lay quads out like the drawing one
+     */
+    private void bake() {
+        if (GLTools.blend)
+            throw new RuntimeException("Cannot bake a batch while blending is enabled");
+        int capacity = quads == 0 ? INITIAL_RECORDING_CAPACITY : quads;
+        release();
+
+        AbstractQuadRenderer r = recording.apply(capacity);
+        try {
+            if (!Arrays.equals(r.format.elements(), renderer.format.elements()) || r.expanded != renderer.expanded)
+                throw new IllegalArgumentException("Cannot bake through " + r + " for " + renderer);
+            r.overflowPolicy = WorldRenderer.OverflowPolicy.GROW;
+            recorder.accept(r);
+
+            quads = r.vertexCount >> 2;
+            if (quads != 0) {
+                vao = glCreateVertexArrays();
+                renderer.format.attribSetup(vao);
+                r.bakeInto(this);
+                if (!renderer.expanded) {
+                    ebo = AbstractQuadRenderer.createQuadEBO(quads);
+                    glVertexArrayElementBuffer(vao, ebo);
+                    if (renderer.indirect)
+                        ibo = AbstractQuadRenderer.createQuadIBO(quads);
+                }
+            }
+        } finally {
+            r.dispose();    // OpenGL keeps the recorded buffers alive until the copies are done
+        }
+        dirty = false;
+    }
+
+    /**
+     * Attaches a baked buffer, called by {@link AbstractQuadRenderer#bakeInto(BakedBatch)}.
+     * @param binding the binding index of the buffer's data
+     * @param buffer the buffer, now owned by this batch
+     * @param stride the stride of the buffer
+     */
+    void attach(int binding, int buffer, int stride) {
+        buffers[binding] = buffer;
+        if (renderer.format.pulled(binding))    // bound as a shader storage buffer when drawing
+            return;
+        glVertexArrayVertexBuffer(vao, binding, buffer, 0, stride);
+        if (binding != AbstractQuadRenderer.VBO_BDG || renderer.expanded)
+            glVertexArrayBindingDivisor(vao, binding, 1);
+    }
+
+    /*
+    * Deletes every baked object
+    * */
+    private void release() {
+        if (vao != 0) {
+            unbindVAO();
+            glDeleteVertexArrays(vao);
+        }
+        for (int b = 0; b < buffers.length; b++)
+            if (buffers[b] != 0) {
+                glDeleteBuffers(buffers[b]);
+                buffers[b] = 0;
+            }
+        if (ibo != 0) {
+            unbindIBO();
+            glDeleteBuffers(ibo);
+        }
+        glDeleteBuffers(ebo);
+        vao = ebo = ibo = quads = 0;
+    }
+
+    @Override
+    public void dispose() {
+        release();
+    }
+}
@@ -0,0 +1,298 @@
+package com.xenon.opengl.abstraction;
+
+import com.xenon.glfw.OpenGL;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Objects;
+
+import static com.xenon.glfw.GLTools.unbindVBO;
+import static org.lwjgl.opengl.GL45.*;
+import static org.lwjgl.system.MemoryUtil.*;
+
+/**
+ * The available {@link BufferStreamingStrategy} implementations, and the one the quad renderers use.
+ * Which one is the fastest depends on the driver, see {@link com.xenon.test.StreamingBenchmark}.
+ */
+public class BufferStreamingStrategies {
+
+    /**
+     * Persistent, non-coherent mapping with explicit flushes, fenced round-robin segments. This is the default.
+     * @see PersistentRing
+     */
+    public static final BufferStreamingStrategy.Factory PERSISTENT =
+            (segmentSize, segments, alignment) -> new PersistentRing(segmentSize, segments, alignment, false);
+    /**
+     * Persistent and coherent mapping, fenced round-robin segments.
+     * @see PersistentRing
+     */
+    public static final BufferStreamingStrategy.Factory COHERENT =
+            (segmentSize, segments, alignment) -> new PersistentRing(segmentSize, segments, alignment, true);
+    /**
+     * Client-side staging, orphaning the buffer with <code>glNamedBufferData</code> before each upload.
+     * @see Orphaning
+     */
+    public static final BufferStreamingStrategy.Factory ORPHAN =
+            (segmentSize, segments, alignment) -> new Orphaning(segmentSize);
+    /**
+     * Client-side staging uploaded with <code>glNamedBufferSubData</code> into round-robin segments.
+     * @see SubData
+     */
+    public static final BufferStreamingStrategy.Factory SUBDATA = SubData::new;
+    /**
+     * Fenced round-robin segments mapped with <code>GL_MAP_UNSYNCHRONIZED_BIT</code> every frame.
+     * @see Unsynchronized
+     */
+    public static final BufferStreamingStrategy.Factory UNSYNCHRONIZED = Unsynchronized::new;
+
+    private static BufferStreamingStrategy.Factory selected = PERSISTENT;
+
+    /**
+     * Selects the strategy of the quad renderers created from now on, unless one is given to their constructor.
+     * @param factory the strategy factory, e.g. {@link #PERSISTENT}
+     */
+    public static void select(BufferStreamingStrategy.Factory factory) {
+        selected = Objects.requireNonNull(factory);
+    }
+
+    /**
+     * @return the strategy factory of the quad renderers created from now on
+     */
+    public static BufferStreamingStrategy.Factory selected() {
+        return selected;
+    }
+
+    /**
+     * Timeout in nanoseconds of a single <code>glClientWaitSync</code> call. We loop until the fence signals anyway.
+     */
+    private static final long WAIT_TIMEOUT = 1_000_000L;
+
+    /**
+     * Blocks until <code>fence</code> signals, then deletes it.
+     * @param fence the fence, or {@link org.lwjgl.system.MemoryUtil#NULL}
+     * @throws RuntimeException if the wait fails
+     */
+    static void await(long fence) {
+        if (fence == NULL)  return;
+        for (;;) {
+            int status = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, WAIT_TIMEOUT);
+            if (status == GL_ALREADY_SIGNALED || status == GL_CONDITION_SATISFIED)
+                break;
+            if (status == GL_WAIT_FAILED)
+                throw new RuntimeException("glClientWaitSync failed");
+        }
+        glDeleteSync(fence);
+    }
+
+    /**
+     * @param size a size in bytes
+     * @param alignment an alignment in bytes
+     * @return <code>size</code> rounded up to a multiple of <code>alignment</code>
+     */
+    static long align(long size, int alignment) {
+        if (alignment < 1)
+            throw new IllegalArgumentException("Invalid alignment " + alignment);
+        return (size + alignment - 1) / alignment * alignment;
+    }
+
+
+    // Implementations
+
+    /**
+     * Data is written into a client-side buffer, then uploaded by {@link #flush()}.
+     */
+    abstract static class Staging implements BufferStreamingStrategy {
+
+        protected final int buffer;
+        protected final int segments;
+        protected final long segmentSize;
+        protected final ByteBuffer staging;
+        protected int current;
+
+        protected Staging(long segmentSize, int segments) {
+            if (segments < 1)
+                throw new IllegalArgumentException("A ring needs at least one segment. Got " + segments);
+            this.segmentSize = segmentSize;
+            this.segments = segments;
+            buffer = glCreateBuffers();
+            staging = memAlloc((int) segmentSize);
+        }
+
+        @Override
+        public int buffer() {
+            return buffer;
+        }
+
+        @Override
+        public int segments() {
+            return segments;
+        }
+
+        @Override
+        public long segmentSize() {
+            return segmentSize;
+        }
+
+        @Override
+        public ByteBuffer data() {
+            return staging;
+        }
+
+        @Override
+        public long offset() {
+            return current * segmentSize;
+        }
+
+        @Override
+        public ByteBuffer advance() {
+            current = (current + 1) % segments;
+            return staging.clear();
+        }
+
+        @Override
+        public void dispose() {
+            memFree(staging);
+            unbindVBO();
+            glDeleteBuffers(buffer);
+        }
+    }
+
+    /**
+     * Single segment, the buffer being orphaned before each upload so that the driver hands out fresh storage
+     * instead of waiting for the GPU.
+     */
+    @OpenGL("Requires OpenGL 4.5 (DSA)")
+    public static class Orphaning extends Staging {
+
+        public Orphaning(long segmentSize) {
+            super(segmentSize, 1);
+            glNamedBufferData(buffer, segmentSize, GL_STREAM_DRAW);
+        }
+
+        @Override
+        public void flush() {
+            int dirty = staging.position();
+            if (dirty == 0) return;
+            glNamedBufferData(buffer, segmentSize, GL_STREAM_DRAW);
+            nglNamedBufferSubData(buffer, 0, dirty, memAddress0(staging));
+        }
+    }
+
+    /**
+     * Round-robin segments of an immutable buffer, updated with <code>glNamedBufferSubData</code>.
+     * The driver is in charge of the synchronization.
+     */
+    @OpenGL("Requires OpenGL 4.5 (DSA)")
+    public static class SubData extends Staging {
+
+        public SubData(long segmentSize, int segments, int alignment) {
+            super(align(segmentSize, alignment), segments);
+            glNamedBufferStorage(buffer, this.segmentSize * segments, GL_DYNAMIC_STORAGE_BIT);
+        }
+
+        @Override
+        public void flush() {
+            int dirty = staging.position();
+            if (dirty != 0)
+                nglNamedBufferSubData(buffer, offset(), dirty, memAddress0(staging));
+        }
+    }
+
+    /**
+     * Round-robin segments of a mutable buffer, each one mapped with <code>GL_MAP_UNSYNCHRONIZED_BIT</code>
+     * while it is written, and guarded by a fence like {@link PersistentRing}.
+     */
+    @OpenGL("Requires OpenGL 4.5 (DSA + Sync Objects)")
+    public static class Unsynchronized implements BufferStreamingStrategy {
+
+        private static final int MAP_FLAGS = GL_MAP_WRITE_BIT | GL_MAP_UNSYNCHRONIZED_BIT
+                | GL_MAP_INVALIDATE_RANGE_BIT | GL_MAP_FLUSH_EXPLICIT_BIT;
+
+        private final int buffer;
+        private final int segments;
+        private final long segmentSize;
+        private final long[] fences;
+        private ByteBuffer mapping;
+        private int current;
+
+        public Unsynchronized(long segmentSize, int segments, int alignment) {
+            if (segments < 1)
+                throw new IllegalArgumentException("A ring needs at least one segment. Got " + segments);
+            this.segmentSize = align(segmentSize, alignment);
+            this.segments = segments;
+            fences = new long[segments];
+            buffer = glCreateBuffers();
+            glNamedBufferData(buffer, this.segmentSize * segments, GL_STREAM_DRAW);
+            map();
+        }
+
+        /*
+        * Maps the current segment
+        * */
+        private void map() {
+            mapping = Objects.requireNonNull(glMapNamedBufferRange(buffer, offset(), segmentSize, MAP_FLAGS))
+                    .order(ByteOrder.nativeOrder());
+        }
+
+        @Override
+        public int buffer() {
+            return buffer;
+        }
+
+        @Override
+        public int segments() {
+            return segments;
+        }
+
+        @Override
+        public long segmentSize() {
+            return segmentSize;
+        }
+
+        @Override
+        public ByteBuffer data() {
+            return mapping;
+        }
+
+        @Override
+        public long offset() {
+            return current * segmentSize;
+        }
+
+        /**
+         * Flushes the dirty range of the current segment and unmaps it, which is required before drawing.
+         */
+        @Override
+        public void flush() {
+            if (mapping == null)    return;
+            int dirty = mapping.position();
+            if (dirty > 0)
+                glFlushMappedNamedBufferRange(buffer, 0, dirty);    // relative to the mapped range
+            glUnmapNamedBuffer(buffer);
+            mapping = null;
+        }
+
+        @Override
+        public ByteBuffer advance() {
+            flush();
+            fences[current] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            current = (current + 1) % segments;
+            await(fences[current]);
+            fences[current] = NULL;
+            map();
+            return mapping;
+        }
+
+        @Override
+        public void dispose() {
+            for (int i = 0; i < segments; i++)
+                if (fences[i] != NULL) {
+                    glDeleteSync(fences[i]);
+                    fences[i] = NULL;
+                }
+            flush();
+            unbindVBO();
+            glDeleteBuffers(buffer);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.xenon.opengl.abstraction;
+
+import com.xenon.glfw.abstraction.Disposable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * How the data written by the CPU reaches a GL buffer every frame.
+ * The data is written into {@link #data()}, made visible by {@link #flush()} right before drawing from
+ * {@link #buffer()} at {@link #offset()}, then {@link #advance()} is called right after the draw call.
+ * <p>
+ * Data is split into <code>segments</code> segments of <code>segmentSize</code> bytes, written round-robin.
+ * Some strategies only ever use a single segment, letting the driver handle the synchronization.
+ * @see BufferStreamingStrategies
+ */
+public interface BufferStreamingStrategy extends Disposable {
+
+    /**
+     * @return the GL buffer to draw from
+     */
+    int buffer();
+
+    /**
+     * @return the number of segments actually used
+     */
+    int segments();
+
+    /**
+     * @return the size in bytes of each segment
+     */
+    long segmentSize();
+
+    /**
+     * @return the writable view of the current segment
+     */
+    ByteBuffer data();
+
+    /**
+     * @return the offset in bytes of the current segment in {@link #buffer()}
+     */
+    long offset();
+
+    /**
+     * Makes the written range of the current segment, that is from its beginning to its position, visible
+     * to the GPU.
+     */
+    void flush();
+
+    /**
+     * Moves on to the next segment, the current one having just been submitted to the GPU.
+     * @return the cleared view of the new current segment
+     */
+    ByteBuffer advance();
+
+    /**
+     * Creates strategies, see {@link BufferStreamingStrategies}.
+     */
+    @FunctionalInterface
+    interface Factory {
+        /**
+         * @param segmentSize the minimal size in bytes of each segment
+         * @param segments the number of segments wanted, usually the number of frames in flight
+         * @param alignment the alignment in bytes of each segment's offset
+         * @return a new strategy
+         */
+        BufferStreamingStrategy create(long segmentSize, int segments, int alignment);
+    }
+}
@@ -0,0 +1,129 @@
+package com.xenon.opengl.abstraction;
+
+import com.xenon.glfw.OpenGL;
+
+import java.util.Arrays;
+
+import static com.xenon.glfw.GLTools.*;
+import static org.lwjgl.opengl.GL45.glDepthMask;
+
+/**
+ * Frame-level queue of draw commands, see {@link Renderers#enableCommandQueue()}.
+ * <p>
+ * The final submission of each renderer becomes commands instead of draw calls: one for its opaque quads and one
+ * per z-level of its translucent quads. Each command gets a 64-bit sort key, from the most significant bits:
+ * <pre>
+ *  0 | layer (6) | translucent (1) | program (10) | vao (10) | texture (10) | depth (10) | sequence (16)   opaque
+ *  0 | layer (6) | translucent (1) | depth (10) | program (10) | vao (10) | texture (10) | sequence (16)   translucent
+ * </pre>
+ * so that a single sort puts, within each layer, opaque commands first grouped by pipeline state, then translucent
+ * commands back to front across renderers. The sequence number keeps the sort stable and indexes the command.
+ * Object names are truncated to 10 bits, a collision only costs some grouping.
+ * <p>
+ * Commands are then executed with as few state transitions as possible: program, VAO and indirect buffer binds go
+ * through the caches of {@link com.xenon.glfw.GLTools}, and blending and depth writes only toggle between the opaque
+ * and the translucent commands.
+ */
+@OpenGL("Requires OpenGL 4.5 (DSA)")
+final class DrawQueue {
+
+    private static final int LAYER_SHIFT = 57, TRANSLUCENT_SHIFT = 56;
+    private static final int MAX_COMMANDS = 1 << 16;
+
+    /**
+     * @param layer the layer, at most 63
+     * @param translucent whether the command draws translucent quads
+     * @param depth the sort key of the z-level of translucent quads, ascending back to front. 0 for opaque quads
+     * @param program the program id
+     * @param vao the VAO id
+     * @param texture the texture bound per draw call, 0 if none
+     * @return the sort key, without sequence number
+     */
+    static long key(int layer, boolean translucent, int depth, int program, int vao, int texture) {
+        long state = (long) (program & 0x3FF) << 20 | (vao & 0x3FF) << 10 | texture & 0x3FF;
+        long bits = translucent ? (long) (depth & 0x3FF) << 30 | state : state << 10 | depth & 0x3FF;
+        return (long) layer << LAYER_SHIFT | (translucent ? 1L : 0L) << TRANSLUCENT_SHIFT | bits << 16;
+    }
+
+    private long[] keys = new long[64];
+    private AbstractQuadRenderer[] commands = new AbstractQuadRenderer[64];
+    private int[] ranges = new int[128];
+    private int size;
+    /*
+    * Renderers with queued commands, in submission order
+    * */
+    private AbstractQuadRenderer[] submitted = new AbstractQuadRenderer[8];
+    private int submittedCount;
+
+    /**
+     * Queues a command.
+     * @param key the sort key, see {@link #key(int, boolean, int, int, int, int)}
+     * @param renderer the renderer drawing the command
+     * @param first the first quad of the range in sorted order, -1 for all the pending quads in submission order
+     * @param count the number of quads
+     * @throws RuntimeException if more than 65536 commands are queued
+     */
+    void add(long key, AbstractQuadRenderer renderer, int first, int count) {
+        if (size == MAX_COMMANDS)
+            throw new RuntimeException("Too many queued draw commands: " + MAX_COMMANDS);
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size << 1);
+            commands = Arrays.copyOf(commands, size << 1);
+            ranges = Arrays.copyOf(ranges, size << 2);
+        }
+        if (submittedCount == 0 || submitted[submittedCount - 1] != renderer) {
+            if (submittedCount == submitted.length)
+                submitted = Arrays.copyOf(submitted, submittedCount << 1);
+            submitted[submittedCount++] = renderer;
+        }
+        keys[size] = key | size;
+        commands[size] = renderer;
+        ranges[size << 1] = first;
+        ranges[size << 1 | 1] = count;
+        size++;
+    }
+
+    /**
+     * Sorts and draws the queued commands, then lets every renderer move on to its next segments.
+     * @param oit the OIT targets translucent commands are accumulated into, if enabled and supported by their
+     *            renderer, or null
+     */
+    void execute(WeightedBlendedOIT oit) {
+        Arrays.sort(keys, 0, size);
+        boolean blending = blend, translucentState = blending, accumulating = false;
+        glDepthMask(!blending);
+        for (int i = 0; i < size; i++) {
+            int c = (int) keys[i] & 0xFFFF;
+            AbstractQuadRenderer r = commands[c];
+            boolean translucent = (keys[i] >>> TRANSLUCENT_SHIFT & 1) != 0;
+            boolean accumulate = translucent && oit != null && r.oitReady();
+            if (accumulate != accumulating) {
+                if (accumulate)
+                    oit.begin();
+                else oit.end();
+                accumulating = accumulate;
+            }
+            if (!accumulate && translucent != translucentState) {
+                if (translucent)
+                    enableBlend();
+                else disableBlend();
+                glDepthMask(!translucent);
+                translucentState = translucent;
+            }
+            r.drawQueued(ranges[c << 1], ranges[c << 1 | 1], accumulate);
+        }
+        if (accumulating)
+            oit.end();
+        if (blending)
+            enableBlend();
+        else disableBlend();
+        glDepthMask(true);
+
+        for (int i = 0; i < submittedCount; i++) {
+            submitted[i].finishQueued();
+            submitted[i] = null;
+        }
+        Arrays.fill(commands, 0, size, null);
+        size = submittedCount = 0;
+    }
+}
@@ -0,0 +1,379 @@
+package com.xenon.opengl.abstraction;
+
+import com.xenon.glfw.OpenGL;
+import com.xenon.glfw.abstraction.Disposable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL45.*;
+
+/**
+ * Runtime texture atlas: RGBA images are packed into square atlas pages as they come, with a bottom-left skyline
+ * packer, and only the inserted rectangle is uploaded. Many small images thus share a few textures, hence a few
+ * bindless handles, and batch without texture changes.
+ * <p>
+ * When no page has room left, the atlas first tries to defragment a page whose released regions (see
+ * {@link Region#release()}) would make room, by repacking its live regions into a new page with GPU copies.
+ * Otherwise, it opens a new page, up to <code>maxPages</code>, and as a last resort evicts the least recently
+ * bound page, invalidating its regions. Replaced pages are only deleted by {@link #endFrame()}, so that quads
+ * already recorded still sample valid textures.
+ * <p>
+ * Pages are bound through their bindless handle, the layered renderers aren't supported.
+ */
+@OpenGL("Requires OpenGL 4.5 (DSA + Copy Image)")
+public class DynamicAtlas implements Disposable {
+
+    /**
+     * Gap left between regions so that linear filtering doesn't bleed over neighbours. Pages are cleared to
+     * transparent on creation, so the gap never holds undefined texels.
+     */
+    private static final int PADDING = 1;
+
+    public final int pageSize, maxPages;
+    private final List<Page> pages = new ArrayList<>();
+    private final List<Page> retired = new ArrayList<>();
+    private long frame;
+
+    /**
+     * @param pageSize the width and height of every page, in texels
+     * @param maxPages the maximum number of pages alive at once
+     */
+    public DynamicAtlas(int pageSize, int maxPages) {
+        if (pageSize < 1 || maxPages < 1)
+            throw new IllegalArgumentException("Invalid atlas dimensions: " + maxPages + " pages of " + pageSize);
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+    }
+
+    /**
+     * Packs an image into the atlas, uploading only its rectangle.
+     * @param rgba <code>width * height</code> RGBA8 texels, row by row
+     * @param width the width of the image
+     * @param height the height of the image
+     * @return the region of the image
+     * @throws IllegalArgumentException if the image is bigger than a page or <code>rgba</code> is too small
+     */
+    public Region add(ByteBuffer rgba, int width, int height) {
+        if (width < 1 || height < 1 || width + PADDING > pageSize || height + PADDING > pageSize)
+            throw new IllegalArgumentException("Cannot pack a " + width + 'x' + height + " image in pages of "
+                    + pageSize);
+        if (rgba.remaining() < width * height * 4)
+            throw new IllegalArgumentException("Expected " + width + 'x' + height + " RGBA8 texels, got "
+                    + rgba.remaining() + " bytes");
+
+        Region region = new Region(width, height);
+        if (!place(region)) {
+            Page page = defragment(width, height);
+            if (page == null) {
+                if (pages.size() == maxPages)
+                    evict();
+                page = new Page(pageSize);
+                pages.add(page);
+            }
+            if (!page.pack(region))
+                throw new AssertionError("A fresh or defragmented page must fit the region");
+        }
+        glTextureSubImage2D(region.page.texture, 0, region.x, region.y, width, height, GL_RGBA, GL_UNSIGNED_BYTE,
+                rgba);
+        return region;
+    }
+
+    /*
+    * Tries every page in order
+    * */
+    private boolean place(Region region) {
+        for (Page page : pages)
+            if (page.pack(region))
+                return true;
+        return false;
+    }
+
+    /**
+     * Repacks the page with the most released area, if doing so makes room for a <code>width * height</code>
+     * region. Live regions are copied to the new page on the GPU and the old page is retired.
+     * @return the new page, or null if no page can make room
+     */
+    private Page defragment(int width, int height) {
+        Page best = null;
+        for (Page page : pages)
+            if (page.released > 0 && (best == null || page.released > best.released))
+                best = page;
+        if (best == null)
+            return null;
+
+        List<Region> live = new ArrayList<>(best.regions);
+        live.sort(Comparator.comparingInt((Region r) -> r.height).reversed());
+        Skyline skyline = new Skyline(pageSize);
+        int[] positions = new int[live.size() * 2];
+        for (int i = 0; i < live.size(); i++) {
+            Region r = live.get(i);
+            int[] p = skyline.insert(r.width + PADDING, r.height + PADDING);
+            if (p == null)
+                return null;
+            positions[i * 2] = p[0];
+            positions[i * 2 + 1] = p[1];
+        }
+        if (skyline.insert(width + PADDING, height + PADDING) == null)
+            return null;
+
+        Page page = new Page(pageSize);
+        for (int i = 0; i < live.size(); i++) {
+            Region r = live.get(i);
+            int nx = positions[i * 2], ny = positions[i * 2 + 1];
+            glCopyImageSubData(best.texture, GL_TEXTURE_2D, 0, r.x, r.y, 0,
+                    page.texture, GL_TEXTURE_2D, 0, nx, ny, 0, r.width, r.height, 1);
+            r.page = page;
+            r.x = nx;
+            r.y = ny;
+            page.regions.add(r);
+            page.skyline.insert(r.width + PADDING, r.height + PADDING);
+        }
+        pages.set(pages.indexOf(best), page);
+        retired.add(best);
+        return page;
+    }
+
+    /*
+    * Retires the least recently bound page, invalidating its regions
+    * */
+    private void evict() {
+        Page lru = pages.get(0);
+        for (Page page : pages)
+            if (page.lastUse < lru.lastUse)
+                lru = page;
+        for (Region r : lru.regions)
+            r.page = null;
+        lru.regions.clear();
+        pages.remove(lru);
+        retired.add(lru);
+    }
+
+    /**
+     * Deletes the pages replaced since the last call, making their handles non-resident first. Must be called once
+     * per frame, after {@link Renderers#draw()}.
+     */
+    public void endFrame() {
+        if (!retired.isEmpty()) {
+            TextureResidency residency = Renderers.textureResidency();
+            for (Page page : retired) {
+                if (residency != null)
+                    residency.forget(page.texture);
+                glDeleteTextures(page.texture);
+            }
+            retired.clear();
+        }
+        frame++;
+    }
+
+    /**
+     * @return the number of live pages
+     */
+    public int pages() {
+        return pages.size();
+    }
+
+    @Override
+    public void dispose() {
+        pages.forEach(retired::add);
+        pages.clear();
+        endFrame();
+    }
+
+    /**
+     * An image packed in a page. Its page and position change when the page is defragmented, so texture and uvs
+     * must be read when drawing rather than cached. Usable directly with
+     * {@link com.xenon.opengl.RenderUtils#drawTexturedRect(WorldRenderer, double, double, double, double, double,
+     * double, double, double)}, passing {@link #x()}, {@link #y()}, {@link #width}, {@link #height} and the page
+     * size, once {@link #bind()} is called.
+     */
+    public final class Region {
+
+        public final int width, height;
+        private Page page;
+        private int x, y;
+
+        private Region(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Binds the page of this region with {@link Renderers#bindTexture(int)}, marking it as used.
+         * @throws IllegalStateException if the region was evicted or released
+         * @throws UnsupportedOperationException if the textured renderers are layered, pages aren't array layers
+         */
+        public void bind() {
+            if (Renderers.textureResidency() == null)
+                throw new UnsupportedOperationException("Atlas pages require bindless textures");
+            Renderers.bindTexture(texture());
+            page.lastUse = frame;
+        }
+
+        /**
+         * @return whether the region is still in the atlas. Evicted regions must be added again
+         */
+        public boolean valid() {
+            return page != null;
+        }
+
+        /**
+         * @return the texture of the page of this region
+         * @throws IllegalStateException if the region was evicted or released
+         */
+        public int texture() {
+            if (page == null)
+                throw new IllegalStateException("Region evicted from the atlas");
+            return page.texture;
+        }
+
+        public int x() {
+            return x;
+        }
+
+        public int y() {
+            return y;
+        }
+
+        public float u1() {
+            return (float) x / pageSize;
+        }
+
+        public float v1() {
+            return (float) y / pageSize;
+        }
+
+        public float u2() {
+            return (float) (x + width) / pageSize;
+        }
+
+        public float v2() {
+            return (float) (y + height) / pageSize;
+        }
+
+        /**
+         * Gives the area of this region back to its page, reclaimed by the next defragmentation of the page.
+         */
+        public void release() {
+            if (page == null)   return;
+            page.regions.remove(this);
+            page.released += (long) (width + PADDING) * (height + PADDING);
+            page = null;
+        }
+    }
+
+    /*
+    * An atlas page, its packer and its live regions
+    * */
+    private static final class Page {
+        final int texture;
+        final Skyline skyline;
+        final List<Region> regions = new ArrayList<>();
+        long released, lastUse;
+
+        Page(int size) {
+            texture = glCreateTextures(GL_TEXTURE_2D);
+            glTextureStorage2D(texture, 1, GL_RGBA8, size, size);
+            glClearTexImage(texture, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);  // storage is undefined
+            glTextureParameteri(texture, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+            glTextureParameteri(texture, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+            glTextureParameteri(texture, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+            glTextureParameteri(texture, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+            skyline = new Skyline(size);
+        }
+
+        boolean pack(Region region) {
+            int[] p = skyline.insert(region.width + PADDING, region.height + PADDING);
+            if (p == null)
+                return false;
+            region.page = this;
+            region.x = p[0];
+            region.y = p[1];
+            regions.add(region);
+            return true;
+        }
+    }
+
+    /**
+     * Bottom-left skyline packer: the packed area is bounded by a list of horizontal segments, and each rectangle
+     * goes where its top ends the lowest, ties going to the narrowest segment.
+     */
+    static final class Skyline {
+        private final int size;
+        /*
+        * x, y and width of each segment, left to right
+        * */
+        private final List<int[]> nodes = new ArrayList<>();
+
+        Skyline(int size) {
+            this.size = size;
+            nodes.add(new int[]{0, 0, size});
+        }
+
+        /**
+         * @return the position of the rectangle, or null if it doesn't fit
+         */
+        int[] insert(int width, int height) {
+            int bestIndex = -1, bestX = 0, bestY = 0, bestTop = Integer.MAX_VALUE, bestWidth = Integer.MAX_VALUE;
+            for (int i = 0; i < nodes.size(); i++) {
+                int y = fit(i, width, height);
+                if (y < 0)
+                    continue;
+                int[] n = nodes.get(i);
+                if (y + height < bestTop || y + height == bestTop && n[2] < bestWidth) {
+                    bestIndex = i;
+                    bestX = n[0];
+                    bestY = y;
+                    bestTop = y + height;
+                    bestWidth = n[2];
+                }
+            }
+            if (bestIndex < 0)
+                return null;
+            addLevel(bestIndex, bestX, bestY, width, height);
+            return new int[]{bestX, bestY};
+        }
+
+        /*
+        * The y at which the rectangle rests if its left edge is at the segment i, -1 if it doesn't fit
+        * */
+        private int fit(int i, int width, int height) {
+            int x = nodes.get(i)[0];
+            if (x + width > size)
+                return -1;
+            int y = 0;
+            for (int left = width; left > 0; i++) {
+                int[] n = nodes.get(i);
+                y = Math.max(y, n[1]);
+                if (y + height > size)
+                    return -1;
+                left -= n[2];
+            }
+            return y;
+        }
+
+        private void addLevel(int index, int x, int y, int width, int height) {
+            nodes.add(index, new int[]{x, y + height, width});
+            for (int i = index + 1; i < nodes.size(); i++) {    // shrink the segments now covered
+                int[] prev = nodes.get(i - 1), n = nodes.get(i);
+                int shrink = prev[0] + prev[2] - n[0];
+                if (shrink <= 0)
+                    break;
+                n[0] += shrink;
+                n[2] -= shrink;
+                if (n[2] > 0)
+                    break;
+                nodes.remove(i--);
+            }
+            for (int i = 0; i < nodes.size() - 1; i++) {    // merge segments of same height
+                int[] n = nodes.get(i), next = nodes.get(i + 1);
+                if (n[1] == next[1]) {
+                    n[2] += next[2];
+                    nodes.remove(i-- + 1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.xenon.opengl.abstraction;
+
+import com.xenon.glfw.OpenGL;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Objects;
+
+import static org.lwjgl.opengl.GL45.*;
+import static org.lwjgl.system.MemoryUtil.NULL;
+
+/**
+ * Persistently mapped buffer split into <code>segments</code> equally sized regions that are written round-robin.
+ * Each region is guarded by a fence placed right after the draw that consumed it, so that the CPU only ever waits
+ * when it is about to rewrite a region the GPU might still be reading.
+ * <p>
+ * Unless the mapping is coherent, the dirty range of the current segment must be made visible with {@link #flush()}
+ * before drawing from it.
+ */
+@OpenGL("Requires OpenGL 4.5 (DSA + Persistent Mapping + Sync Objects)")
+public class PersistentRing implements BufferStreamingStrategy {
+
+    private final int buffer;
+    private final int segments;
+    private final long segmentSize;
+    private final boolean coherent;
+
+    private final ByteBuffer[] views;
+    private final long[] fences;
+    private int current;
+
+    /**
+     * Allocates and maps <code>segmentSize * segments</code> bytes.
+     * @param segmentSize the size in bytes of each segment
+     * @param segments the number of segments, usually the number of frames in flight
+     */
+    public PersistentRing(long segmentSize, int segments) {
+        this(segmentSize, segments, 1);
+    }
+
+    /**
+     * Allocates and maps <code>segments</code> segments, the size of each one being rounded up to a multiple of
+     * <code>alignment</code> so that every segment can be bound with <code>glBindBufferRange</code>.
+     * @param segmentSize the minimal size in bytes of each segment
+     * @param segments the number of segments, usually the number of frames in flight
+     * @param alignment the alignment in bytes of each segment,
+     *                  e.g. <code>GL_SHADER_STORAGE_BUFFER_OFFSET_ALIGNMENT</code>
+     */
+    public PersistentRing(long segmentSize, int segments, int alignment) {
+        this(segmentSize, segments, alignment, false);
+    }
+
+    /**
+     * Allocates and maps <code>segments</code> segments, the size of each one being rounded up to a multiple of
+     * <code>alignment</code>.
+     * @param segmentSize the minimal size in bytes of each segment
+     * @param segments the number of segments, usually the number of frames in flight
+     * @param alignment the alignment in bytes of each segment
+     * @param coherent whether the mapping is coherent, making {@link #flush()} a no-op
+     */
+    public PersistentRing(long segmentSize, int segments, int alignment, boolean coherent) {
+        if (segments < 1)
+            throw new IllegalArgumentException("A ring needs at least one segment. Got " + segments);
+        segmentSize = BufferStreamingStrategies.align(segmentSize, alignment);
+        this.segmentSize = segmentSize;
+        this.segments = segments;
+        this.coherent = coherent;
+
+        long size = segmentSize * segments;
+        int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | (coherent ? GL_MAP_COHERENT_BIT : 0);
+        buffer = glCreateBuffers();
+        glNamedBufferStorage(buffer, size, flags);
+        ByteBuffer mapping = Objects.requireNonNull(glMapNamedBufferRange(buffer, 0, size,
+                coherent ? flags : flags | GL_MAP_FLUSH_EXPLICIT_BIT));
+
+        views = new ByteBuffer[segments];
+        for (int i = 0; i < segments; i++)  // slices are big endian by default
+            views[i] = mapping.slice((int) (i * segmentSize), (int) segmentSize).order(ByteOrder.nativeOrder());
+        fences = new long[segments];
+    }
+
+    @Override
+    public int buffer() {
+        return buffer;
+    }
+
+    @Override
+    public int segments() {
+        return segments;
+    }
+
+    @Override
+    public long segmentSize() {
+        return segmentSize;
+    }
+
+    @Override
+    public ByteBuffer data() {
+        return views[current];
+    }
+
+    @Override
+    public long offset() {
+        return current * segmentSize;
+    }
+
+    /**
+     * Flushes the dirty range of the current segment, that is from its beginning to its position.
+     */
+    @Override
+    public void flush() {
+        int dirty = views[current].position();
+        if (dirty > 0 && !coherent)
+            glFlushMappedNamedBufferRange(buffer, offset(), dirty);
+    }
+
+    /**
+     * Fences the current segment, which must have just been submitted to the GPU, then moves on to the next segment,
+     * waiting for the GPU to be done with it if needed.
+     * @return the cleared view of the new current segment
+     */
+    @Override
+    public ByteBuffer advance() {
+        fences[current] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        current = (current + 1) % segments;
+        BufferStreamingStrategies.await(fences[current]);
+        fences[current] = NULL;
+        return views[current].clear();
+    }
+
+    @Override
+    public void dispose() {
+        for (int i = 0; i < segments; i++)
+            if (fences[i] != NULL) {
+                glDeleteSync(fences[i]);
+                fences[i] = NULL;
+            }
+        glUnmapNamedBuffer(buffer);
+        glDeleteBuffers(buffer);
+    }
+}
@@ -1,21 +1,28 @@
 package com.xenon.opengl.abstraction;
 
+import com.xenon.glfw.GLFWContext;
 import com.xenon.glfw.GLTools;
 import com.xenon.glfw.ShaderProgram;
 import com.xenon.opengl.VertexFormat;
 import com.xenon.opengl.debug.Circe;
+import com.xenon.opengl.debug.CirceCache;
 import com.xenon.opengl.debug.Polypheme;
+import com.xenon.opengl.debug.ShaderReloader;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Objects;
 
+import static com.xenon.utils.MathsTools.*;
 import static org.lwjgl.opengl.GL46.*;
+import static org.lwjgl.system.MemoryUtil.*;
 /**
- * Blending is supported but is extremely expensive on batching.
- * See {@link InstancedQuadRenderer} and {@link GLTools#enableBlend()} to see how we handle it.
+ * Blending is supported without breaking batching: quads ended while {@link GLTools#blend} is set are queued as
+ * translucent and drawn after the opaque ones, back to front. See {@link AbstractQuadRenderer#drawQuads(int)}.
  *
  * @author Zenon
  */
@@ -27,6 +34,20 @@ public class Renderers {
 
     private static WorldRenderer[] renderers;
 
+    /*
+    * Dimensions given to init, shaders of the default renderers, OIT targets if enabled, frame-level command queue
+    * if enabled, whether the textured renderers are layered, the residency of bindless textures otherwise, and
+    * the hot reloader of the default programs if any
+    * */
+    private static int width, height;
+    private static String[] shaders;
+    private static WeightedBlendedOIT oit;
+    private static DrawQueue queue;
+    private static boolean layered;
+    private static TextureResidency residency;
+    private static CirceCache circe = new CirceCache(64);
+    private static ShaderReloader reloader;
+
     /**
      * Creates the default renderers as well as their shaders.
      * @param width the initial width of the application
@@ -36,37 +57,281 @@ public class Renderers {
      * @param texColQuadCap {@link #POS2_TEX_COL} capacity
      */
     public static void init(int width, int height, int colQuadCap, int texQuadCap, int texColQuadCap) {
+        init(width, height, colQuadCap, texQuadCap, texColQuadCap, false);
+    }
+
+    /**
+     * Creates the default renderers as well as their shaders.
+     * @param width the initial width of the application
+     * @param height the initial height of the application
+     * @param colQuadCap {@link #POS2_COL} capacity
+     * @param texQuadCap {@link #POS2_TEX} capacity
+     * @param texColQuadCap {@link #POS2_TEX_COL} capacity
+     * @param expandQuads whether to use the single-vertex-per-quad renderers (see {@link ExpandedQuadRenderer})
+     *                    instead of the 4-vertices ones
+     */
+    public static void init(int width, int height, int colQuadCap, int texQuadCap, int texColQuadCap,
+                            boolean expandQuads) {
+        init(width, height, colQuadCap, texQuadCap, texColQuadCap, expandQuads, false);
+    }
+
+    /**
+     * Creates the default renderers as well as their shaders.
+     * @param width the initial width of the application
+     * @param height the initial height of the application
+     * @param colQuadCap {@link #POS2_COL} capacity
+     * @param texQuadCap {@link #POS2_TEX} capacity
+     * @param texColQuadCap {@link #POS2_TEX_COL} capacity
+     * @param expandQuads whether to use the single-vertex-per-quad renderers (see {@link ExpandedQuadRenderer})
+     *                    instead of the 4-vertices ones
+     * @param compressVertices whether to use the 4-vertices renderers with compressed vertices
+     *                         (see {@link POS2_COL_CompressedRenderer})
+     * @throws IllegalArgumentException if both <code>expandQuads</code> and <code>compressVertices</code> are set,
+     * or if <code>compressVertices</code> is set with a size past {@link POS2_COL_CompressedRenderer#MAX_SIZE}
+     */
+    public static void init(int width, int height, int colQuadCap, int texQuadCap, int texColQuadCap,
+                            boolean expandQuads, boolean compressVertices) {
+        init(width, height, colQuadCap, texQuadCap, texColQuadCap, expandQuads, compressVertices,
+                BufferStreamingStrategies.selected());
+    }
+
+    /**
+     * Creates the default renderers as well as their shaders.
+     * <p>
+     * Without bindless textures (see {@link GLFWContext#bindlessTextures()}), the textured renderers are layered
+     * (see {@link Textured2DQuadRenderer#layered}) and sample the texture array bound with
+     * {@link #bindTextureArray(TextureArray)}. Expanded textured renderers need bindless textures, the 4-vertices
+     * layered ones are used instead.
+     * @param width the initial width of the application
+     * @param height the initial height of the application
+     * @param colQuadCap {@link #POS2_COL} capacity
+     * @param texQuadCap {@link #POS2_TEX} capacity
+     * @param texColQuadCap {@link #POS2_TEX_COL} capacity
+     * @param expandQuads whether to use the single-vertex-per-quad renderers (see {@link ExpandedQuadRenderer})
+     *                    instead of the 4-vertices ones
+     * @param compressVertices whether to use the 4-vertices renderers with compressed vertices
+     *                         (see {@link POS2_COL_CompressedRenderer})
+     * <p>
+     * Calling it again replaces the default renderers: the previous ones are disposed of and unregistered, the
+     * new ones take their place in the drawing order, with their OIT programs if enabled (see
+     * {@link #enableOIT()}) and watched by the hot reloader if any (see {@link #hotReload(ShaderReloader)}).
+     * @param streaming how the default renderers stream their buffers, see {@link BufferStreamingStrategies}. The
+     *                  strategy selected for other renderers is left untouched
+     * @throws IllegalArgumentException if both <code>expandQuads</code> and <code>compressVertices</code> are set,
+     * or if <code>compressVertices</code> is set with a size past {@link POS2_COL_CompressedRenderer#MAX_SIZE}
+     */
+    public static void init(int width, int height, int colQuadCap, int texQuadCap, int texColQuadCap,
+                            boolean expandQuads, boolean compressVertices,
+                            BufferStreamingStrategy.Factory streaming) {
+        Objects.requireNonNull(streaming);
+        if (expandQuads && compressVertices)
+            throw new IllegalArgumentException("Compressed vertices are only available for 4-vertices quads");
+        if (compressVertices && Math.max(width, height) > POS2_COL_CompressedRenderer.MAX_SIZE)
+            throw new IllegalArgumentException("Compressed vertices are only exact up to "
+                    + POS2_COL_CompressedRenderer.MAX_SIZE + " pixels, got " + width + "x" + height);
+        Renderers.width = width;
+        Renderers.height = height;
 
-        Polypheme.registerLib("XENON_UI_ESSENTIALS", String.format("""
+        Polypheme.replaceLib("XENON_UI_ESSENTIALS", String.format("""
                 vec2 correct2D(vec2 u)
                 {
                     return vec2( (2.0 / %d) * u.x - 1.0, 1.0 - u.y * (2.0 / %d) );
                 }
                 """, width, height));
+        Polypheme.replaceLib("XENON_UI_QUAD", """
+                vec2 quadCorner()
+                {
+                    return vec2(gl_VertexID >> 1, gl_VertexID & 1);
+                }
+                """);
+        Polypheme.replaceLib("XENON_OIT", WeightedBlendedOIT.LIBRARY);
+
+        WorldRenderer[] previous = POS2_COL == null ? null : new WorldRenderer[]{POS2_COL, POS2_TEX, POS2_TEX_COL};
+        layered = !GLFWContext.current().bindlessTextures();
+        if (!layered && residency == null)
+            residency = new TextureResidency(TextureResidency.DEFAULT_BUDGET);
+        int segments = AbstractQuadRenderer.DEFAULT_RING_SEGMENTS;
+        if (expandQuads) {
+            POS2_COL = new POS2_COL_QuadRenderer(colQuadCap, segments, streaming);
+            if (layered) {
+                POS2_TEX = new POS2_TEX_Renderer(texQuadCap, segments, true, streaming);
+                POS2_TEX_COL = new POS2D_TEX_COL_Renderer(texColQuadCap, segments, true, streaming);
+            } else {
+                POS2_TEX = new POS2_TEX_QuadRenderer(texQuadCap, segments, streaming);
+                POS2_TEX_COL = new POS2D_TEX_COL_QuadRenderer(texColQuadCap, segments, streaming);
+            }
+        } else if (compressVertices) {
+            POS2_COL = new POS2_COL_CompressedRenderer(colQuadCap, segments, streaming);
+            POS2_TEX = new POS2_TEX_CompressedRenderer(texQuadCap, segments, layered, streaming);
+            POS2_TEX_COL = new POS2D_TEX_COL_CompressedRenderer(texColQuadCap, segments, layered, streaming);
+        } else {
+            POS2_COL = new POS2_COL_Renderer(colQuadCap, segments, streaming);
+            POS2_TEX = new POS2_TEX_Renderer(texQuadCap, segments, layered, streaming);
+            POS2_TEX_COL = new POS2D_TEX_COL_Renderer(texColQuadCap, segments, layered, streaming);
+        }
+        String texSuffix = layered ? "_array.glsl" : expandQuads ? "_quad.glsl" : ".glsl";
+        shaders = new String[]{
+                "ui_col" + (expandQuads ? "_quad.glsl" : ".glsl"),
+                "ui_tex" + texSuffix,
+                "ui_tex_col" + texSuffix
+        };
+        WorldRenderer[] defaults = {POS2_COL, POS2_TEX, POS2_TEX_COL};
+        if (previous == null)
+            registerRenderer(defaults);
+        else replaceDefaults(previous, defaults);
+
+        for (int i = 0; i < defaults.length; i++)
+            defaults[i].build(program(shaders[i], defaults[i].format(), false));
+        if (previous == null)
+            return;
+        if (oit != null)
+            for (int i = 0; i < defaults.length; i++)
+                if (defaults[i] instanceof AbstractQuadRenderer a)
+                    a.buildOIT(program(shaders[i], a.format(), true));
+        if (reloader != null)
+            hotReload(reloader);
+    }
+
+    /*
+    * Puts the new default renderers in place of the previous ones, which stop being watched and are disposed of
+    * */
+    private static void replaceDefaults(WorldRenderer[] previous, WorldRenderer[] defaults) {
+        for (int i = 0; i < previous.length; i++) {
+            int at = renderers == null ? -1 : Arrays.asList(renderers).indexOf(previous[i]);
+            if (at < 0)
+                registerRenderer(defaults[i]);
+            else renderers[at] = defaults[i];
+            if (reloader != null && previous[i] instanceof AbstractQuadRenderer a) {
+                if (a.shaderProgram != null)
+                    reloader.unwatch(a.shaderProgram);
+                if (a.oitProgram != null)
+                    reloader.unwatch(a.oitProgram);
+            }
+            previous[i].dispose();
+        }
+    }
+
+    /**
+     * @param file the shader of a default renderer
+     * @param format the format of the renderer
+     * @param oit whether to build the weighted blended OIT variant
+     * @return the program, built asynchronously: renderers skip drawing until it is ready
+     */
+    private static ShaderProgram program(String file, VertexFormat format, boolean oit) {
+        try {
+            String code = Files.readString(shaderPath(file));
+            return ShaderProgram.buildAsync(circe.parseVertexAndFragment(
+                    oit ? Circe.weightedBlendedVariant(code) : code,
+                    format
+            ));
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Path shaderPath(String file) {
+        return Paths.get("./assets/shaders/" + file);
+    }
 
-        POS2_COL = new POS2_COL_Renderer(colQuadCap);
-        POS2_TEX = new POS2_TEX_Renderer(texQuadCap);
-        POS2_TEX_COL = new POS2D_TEX_COL_Renderer(texColQuadCap);
-        registerRenderer(POS2_COL, POS2_TEX, POS2_TEX_COL);
+    /**
+     * Hot reloads the programs of the default renderers, OIT ones included, when their shader or the libraries they
+     * include change. {@link ShaderReloader#update()} is up to the caller, and the reloader must be disposed of
+     * before the renderers.
+     * @param r the reloader, null to stop watching new programs
+     */
+    public static void hotReload(ShaderReloader r) {
+        reloader = r;
+        if (r == null)  return;
+        WorldRenderer[] defaults = {POS2_COL, POS2_TEX, POS2_TEX_COL};
+        for (int i = 0; i < defaults.length; i++)
+            if (defaults[i] instanceof AbstractQuadRenderer a) {
+                watch(shaders[i], a, false);
+                if (a.oitProgram != null)
+                    watch(shaders[i], a, true);
+            }
+    }
 
+    private static void watch(String file, AbstractQuadRenderer a, boolean oit) {
         try {
-            POS2_COL.build(ShaderProgram.build(Circe.parseVertexAndFragment(
-                    Files.readString(Paths.get("./assets/shaders/ui_col.glsl")),
-                    POS2_COL.format()
-            )));
-            POS2_TEX.build(ShaderProgram.build(Circe.parseVertexAndFragment(
-                    Files.readString(Paths.get("./assets/shaders/ui_tex.glsl")),
-                    POS2_TEX.format()
-            )));
-            POS2_TEX_COL.build(ShaderProgram.build(Circe.parseVertexAndFragment(
-                    Files.readString(Paths.get("./assets/shaders/ui_tex_col.glsl")),
-                    POS2_TEX_COL.format()
-            )));
+            if (oit)
+                reloader.watch(shaderPath(file), a.format(), Circe::weightedBlendedVariant, a.oitProgram,
+                        a::buildOIT);
+            else reloader.watch(shaderPath(file), a.format(), null, a.shaderProgram, a::build);
         } catch(IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Switches translucent quads to weighted blended order-independent transparency: instead of being sorted back
+     * to front and blended by each renderer, the translucent quads of every registered renderer are accumulated by
+     * {@link #draw()} after all the opaque ones, then composited at once over the default framebuffer.
+     * Translucent quads flushed before {@link #draw()}, e.g. on overflow, are still sorted and blended.
+     * <p>
+     * The OIT programs of the default renderers are built here, other renderers must be given theirs through
+     * {@link AbstractQuadRenderer#buildOIT(ShaderProgram)} beforehand, or keep on sorting.
+     * The OIT targets follow the size of the default framebuffer, see {@link WeightedBlendedOIT#begin()}.
+     * @throws RuntimeException if the default framebuffer's depth is not <code>DEPTH24_STENCIL8</code>
+     */
+    public static void enableOIT() {
+        if (oit != null)    return;
+        oit = new WeightedBlendedOIT(width, height);
+        WorldRenderer[] defaults = {POS2_COL, POS2_TEX, POS2_TEX_COL};
+        for (int i = 0; i < defaults.length; i++)
+            if (defaults[i] instanceof AbstractQuadRenderer a && a.oitProgram == null) {
+                a.buildOIT(program(shaders[i], a.format(), true));
+                if (reloader != null)
+                    watch(shaders[i], a, true);
+            }
+    }
+
+    /**
+     * Goes back to sorted translucent quads, see {@link #enableOIT()}.
+     */
+    public static void disableOIT() {
+        if (oit == null)    return;
+        oit.dispose();
+        oit = null;
+    }
+
+    /**
+     * Switches {@link #draw()} to a frame-level command queue: instead of drawing each renderer in registration
+     * order, the final submission of every renderer becomes sorted commands (see {@link DrawQueue}). Within each
+     * layer (see {@link #layer(WorldRenderer, int)}), the opaque quads of all renderers are drawn first, grouped by
+     * program, VAO and texture, then the translucent quads of all renderers back to front, with a single blending
+     * toggle. Opaque quads of different renderers thus rely on the depth test rather than on registration order.
+     * <p>
+     * Quads flushed before {@link #draw()}, e.g. on overflow, are still drawn right away.
+     */
+    public static void enableCommandQueue() {
+        if (queue == null)
+            queue = new DrawQueue();
+    }
+
+    /**
+     * Goes back to drawing the renderers in registration order, see {@link #enableCommandQueue()}.
+     */
+    public static void disableCommandQueue() {
+        queue = null;
+    }
+
+    /**
+     * Sets the layer of the commands of a renderer in the command queue, lower layers being drawn entirely first.
+     * Renderers are in layer 0 by default.
+     * @param w the renderer
+     * @param layer the layer, from 0 to 63
+     * @throws IllegalArgumentException if the layer is out of range or the renderer doesn't extend
+     * {@link AbstractQuadRenderer}
+     * @see #enableCommandQueue()
+     */
+    public static void layer(WorldRenderer w, int layer) {
+        if (layer < 0 || layer > 63)
+            throw new IllegalArgumentException("Layer out of range: " + layer);
+        if (!(w instanceof AbstractQuadRenderer a))
+            throw new IllegalArgumentException("Command queue layers require an AbstractQuadRenderer");
+        a.layer = layer;
+    }
+
     /**
      * registers the given WorldRenderers
      * @param rs the WorldRenderers
@@ -94,28 +359,147 @@ public class Renderers {
     }
 
     /**
-     * Draws the content of all the registered WorldRenderers
+     * Sets the culling viewport of all the registered WorldRenderers, usually the window's rectangle.
+     * @param x1 upper-left corner's x
+     * @param y1 upper-left corner's y
+     * @param x2 bottom-right corner's x
+     * @param y2 bottom-right corner's y
+     * @see WorldRenderer#viewport(float, float, float, float)
+     */
+    public static void viewport(float x1, float y1, float x2, float y2) {
+        for (var w : renderers)
+            w.viewport(x1, y1, x2, y2);
+    }
+
+    /**
+     * Draws the content of all the registered WorldRenderers, once per frame, in 2 passes: the opaque quads of every
+     * renderer first, then their translucent quads, back to front within each renderer, so that a renderer's
+     * overlays are never covered by the opaque quads of the renderers registered after it.
+     * If OIT is enabled (see {@link #enableOIT()}), the translucent quads are accumulated then composited instead.
+     * If the command queue is enabled (see {@link #enableCommandQueue()}), the quads of all the renderers are drawn
+     * as sorted commands instead. Ends the frame of the {@link #textureResidency()}, if any.
      */
     public static void draw() {
+        drawRenderers();
+        if (residency != null)
+            residency.endFrame();
+    }
+
+    private static void drawRenderers() {
+        if (queue != null) {
+            for (var w : renderers)
+                if (w instanceof AbstractQuadRenderer a) {
+                    a.queue = queue;
+                    a.GPU();
+                    a.queue = null;
+                } else w.GPU();
+            queue.execute(oit);
+            return;
+        }
+        boolean deferred = false;
+        for (var w : renderers)
+            if (w instanceof AbstractQuadRenderer a) {
+                a.deferTranslucent = true;
+                a.deferOIT = oit != null;
+                a.GPU();
+                a.deferTranslucent = a.deferOIT = false;
+                deferred |= a.deferredTranslucent();
+            } else w.GPU();
+        if (!deferred)  return;
+        if (oit != null) {
+            oit.begin();
+            for (var w : renderers)
+                if (w instanceof AbstractQuadRenderer a)
+                    a.drawDeferred(true);
+            oit.end();
+            return;
+        }
+        boolean blending = GLTools.blend;
+        GLTools.enableBlend();
+        glDepthMask(false);
         for (var w : renderers)
-            w.GPU();
+            if (w instanceof AbstractQuadRenderer a)
+                a.drawDeferred(false);
+        glDepthMask(true);
+        if (!blending)
+            GLTools.disableBlend();
     }
 
     /**
-     * Disposes of all the registered WorldRenderers
+     * Disposes of all the registered WorldRenderers, and unregisters them
      */
     public static void dispose() {
         for (var w : renderers)
             w.dispose();
+        renderers = null;
+        POS2_COL = POS2_TEX = POS2_TEX_COL = null;
+        disableOIT();
+        if (residency != null) {
+            residency.clear();
+            residency = null;
+        }
     }
 
 
     /**
-     * Binds the texture for future rendering operations.
-     * @param id the texture id
+     * Binds the texture for future rendering operations. Its bindless handle is made resident by the
+     * {@link #textureResidency()}, unless the textured renderers are layered.
+     * @param id the texture id, or the layer of the texture array bound with {@link #bindTextureArray(TextureArray)}
+     *           if the textured renderers are layered (see {@link Textured2DQuadRenderer#layered})
+     * @throws IllegalStateException if there is no {@link #textureResidency()} to make the handle resident, before
+     * {@link #init} or after <code>textureResidency(null)</code>
      */
     public static void bindTexture(int id) {
-        Textured2DQuadRenderer.currentTextureID = id;
+        if (layered) {
+            Textured2DQuadRenderer.currentTextureID = id;
+            return;
+        }
+        if (residency == null)
+            throw new IllegalStateException("No TextureResidency: call init or textureResidency(...) first, "
+                    + "or bind resident handles with bindHandle");
+        Textured2DQuadRenderer.currentTextureID = residency.handle(id);
+    }
+
+    /**
+     * Replaces the cache of the preprocessed shaders of the default renderers, e.g. with one backed by a directory.
+     * By default, the last 64 shaders are kept in memory.
+     * @param cache the new cache
+     */
+    public static void circeCache(CirceCache cache) {
+        circe = Objects.requireNonNull(cache);
+    }
+
+    /**
+     * Binds a bindless texture handle for future rendering operations, whose residency is up to the caller.
+     * @param handle the resident bindless texture handle
+     */
+    public static void bindHandle(long handle) {
+        Textured2DQuadRenderer.currentTextureID = handle;
+    }
+
+    /**
+     * @return the residency manager of the bindless textures bound by {@link #bindTexture(int)}, null if the
+     * textured renderers are layered
+     */
+    public static TextureResidency textureResidency() {
+        return residency;
+    }
+
+    /**
+     * Replaces the residency manager of bindless textures. If set before {@link #init}, no default one
+     * (of {@link TextureResidency#DEFAULT_BUDGET} bytes) is created.
+     * @param r the new residency manager
+     */
+    public static void textureResidency(TextureResidency r) {
+        residency = r;
+    }
+
+    /**
+     * Binds the texture array sampled by layered textured renderers, see {@link Textured2DQuadRenderer#layered}.
+     * @param array the texture array
+     */
+    public static void bindTextureArray(TextureArray array) {
+        Textured2DQuadRenderer.textureArray = array.id;
     }
 
     public static void zlevel(int lvl) {
@@ -126,63 +510,159 @@ public class Renderers {
         return new UnsupportedOperationException();
     }
 
+    /**
+     * @param handle a texture handle
+     * @return <code>handle</code>
+     * @throws RuntimeException if <code>handle</code> is null
+     */
+    private static long checkTexture(long handle) {
+        if (handle == 0)
+            throw new RuntimeException("No texture bound");
+        return handle;
+    }
+
+    /**
+     * @param texture a texture handle, or a texture array layer
+     * @param layered whether <code>texture</code> is a layer
+     * @return <code>texture</code>
+     * @throws RuntimeException if <code>texture</code> is a null handle
+     * @throws IllegalArgumentException if <code>texture</code> is a layer that doesn't fit in 16 bits
+     */
+    private static long checkTexture(long texture, boolean layered) {
+        if (!layered)
+            return checkTexture(texture);
+        if (texture < 0 || texture > 0xFFFF)
+            throw new IllegalArgumentException("Texture array layer out of range: " + texture);
+        return texture;
+    }
+
 
     // WorldRenderer abstractions
 
+    /**
+     * Quad renderer with per-quad data in a second buffer, at {@link #INST_VBO_BDG}.
+     * If the format reads it as vertex attributes, each quad needs its own indirect command (see
+     * {@link #indirect}). If the format pulls it instead (see {@link VertexFormat.Fetch#PER_QUAD}), the buffer is
+     * bound as a shader storage buffer and the whole batch is a single draw call.
+     */
     public abstract static class InstancedQuadRenderer extends AbstractQuadRenderer {
 
         protected static final int INST_VBO_BDG = 1;
 
-        protected final ByteBuffer instanced_vbo_data;
-        protected final int instanced_vbo;
+        protected BufferStreamingStrategy instanced_vbo_stream;
+        /**
+         * The current segment of {@link #instanced_vbo_stream}. Changes after each {@link #GPU()} call.
+         */
+        protected ByteBuffer instanced_vbo_data;
+        protected final int i_stride;
 
-        protected InstancedQuadRenderer(int quadCapacity, VertexFormat format) {
-            super(quadCapacity, format);
+        protected InstancedQuadRenderer(int quadCapacity, int segments, VertexFormat format) {
+            this(quadCapacity, segments, format, BufferStreamingStrategies.selected());
+        }
 
-            int i_stride = format.stride(INST_VBO_BDG);
-            long i_size = (long) this.quad_capacity * i_stride;
-            instanced_vbo = glCreateBuffers();
+        protected InstancedQuadRenderer(int quadCapacity, int segments, VertexFormat format,
+                                        BufferStreamingStrategy.Factory streaming) {
+            super(quadCapacity, segments, format, false, streaming);
+            if (format.fetch(INST_VBO_BDG) == VertexFormat.Fetch.PER_BATCH)
+                throw new IllegalArgumentException("Per-quad data is streamed, it cannot be fetched per batch");
 
-            glVertexArrayVertexBuffer(vao, INST_VBO_BDG, instanced_vbo, 0, i_stride);
-            glVertexArrayBindingDivisor(vao, INST_VBO_BDG, 1);
+            i_stride = format.stride(INST_VBO_BDG);
+            instanced_vbo_stream = createInstancedStream(segments);
+            instanced_vbo_data = instanced_vbo_stream.data();
 
-            int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT;
-            glNamedBufferStorage(instanced_vbo, i_size, flags);
-            instanced_vbo_data = Objects.requireNonNull(glMapNamedBufferRange(instanced_vbo, 0, i_size,
-                    flags | GL_MAP_FLUSH_EXPLICIT_BIT));
+            if (indirect) {
+                glVertexArrayVertexBuffer(vao, INST_VBO_BDG, instanced_vbo_stream.buffer(), 0, i_stride);
+                glVertexArrayBindingDivisor(vao, INST_VBO_BDG, 1);
+            }
+        }
 
+        /*
+        * Pulled per-quad data is bound with glBindBufferRange, which has alignment requirements on the offset
+        * */
+        private BufferStreamingStrategy createInstancedStream(int segments) {
+            return streaming.create((long) quad_capacity * i_stride, segments,
+                    indirect ? 1 : glGetInteger(GL_SHADER_STORAGE_BUFFER_OFFSET_ALIGNMENT));
         }
 
         @Override
-        public void endVertex() {
-            super.endVertex();
-            if ((vertexCount & 3) == 0) {
-                on4thVertex();
-                if (GLTools.blend)  // if 2D blend is enabled, flush instantly for correctness
-                    GPU();
-            }
+        protected void endQuad() {
+            on4thVertex();
+            super.endQuad();
         }
         protected abstract void on4thVertex();
 
         @Override
         protected void preGPU() {
-            glFlushMappedNamedBufferRange(instanced_vbo, 0, instanced_vbo_data.position());
+            instanced_vbo_stream.flush();
             super.preGPU();
         }
 
+        @Override
+        protected void bindBuffers() {
+            super.bindBuffers();
+            if (indirect)
+                glVertexArrayVertexBuffer(vao, INST_VBO_BDG, instanced_vbo_stream.buffer(),
+                        instanced_vbo_stream.offset(), i_stride);
+            else glBindBufferRange(GL_SHADER_STORAGE_BUFFER, INST_VBO_BDG, instanced_vbo_stream.buffer(),
+                    instanced_vbo_stream.offset(), instanced_vbo_stream.segmentSize());
+        }
+
         @Override
         protected void postGPU() {
             super.postGPU();
-            instanced_vbo_data.clear();
+            instanced_vbo_data = instanced_vbo_stream.advance();
+        }
+
+        /**
+         * @param quad the index of a quad reserved by {@link #reserveQuad()}
+         * @return the raw address of the quad's per-quad data in the current segment
+         */
+        protected final long instancedAddress(int quad) {
+            return memAddress0(instanced_vbo_data) + (long) quad * i_stride;
+        }
+
+        @Override
+        protected void commitReservedQuads(int quads) {
+            super.commitReservedQuads(quads);
+            instanced_vbo_data.position(quads * i_stride);
+        }
+
+        @Override
+        protected void bakeInto(BakedBatch batch) {
+            super.bakeInto(batch);
+            batch.attach(INST_VBO_BDG, copyPending(instanced_vbo_stream), i_stride);
+        }
+
+        @Override
+        protected void grow(int quadCapacity) {
+            super.grow(quadCapacity);
+            BufferStreamingStrategy old = instanced_vbo_stream;
+            instanced_vbo_stream = createInstancedStream(old.segments());
+            instanced_vbo_data = instanced_vbo_stream.data().put(old.data().flip());
+            old.dispose();
+        }
+
+        @Override
+        public void dispose() {
+            super.dispose();
+            instanced_vbo_stream.dispose();
         }
     }
 
+    /**
+     * Quad renderer tagging each quad with a z-level byte, tested by the depth test.
+     */
     public abstract static class Depth2DRenderer extends InstancedQuadRenderer {
 
         static int zlevel;
 
-        protected Depth2DRenderer(int quadCapacity, VertexFormat format) {
-            super(quadCapacity, format);
+        protected Depth2DRenderer(int quadCapacity, int segments, VertexFormat format) {
+            this(quadCapacity, segments, format, BufferStreamingStrategies.selected());
+        }
+
+        protected Depth2DRenderer(int quadCapacity, int segments, VertexFormat format,
+                                  BufferStreamingStrategy.Factory streaming) {
+            super(quadCapacity, segments, format, streaming);
         }
 
         @Override
@@ -190,6 +670,22 @@ public class Renderers {
             instanced_vbo_data.put((byte) zlevel);
         }
 
+        @Override
+        protected int currentZLevel() {
+            return zlevel;
+        }
+
+        /**
+         * Writes the z-level of a quad reserved by {@link #reserveQuad()}.
+         * @param address the address of the z-level in the quad's per-quad data
+         * @param quad the index of the quad
+         * @param zlevel the z-level
+         */
+        protected final void putZLevel(long address, int quad, int zlevel) {
+            memPutByte(address, (byte) zlevel);
+            concurrentSortKey(quad, zlevel);
+        }
+
         /**
          * @throws UnsupportedOperationException always
          */
@@ -199,21 +695,190 @@ public class Renderers {
         }
     }
 
+    /**
+     * Quad renderer tagging each quad with its texture: a 64-bit bindless handle, or, if {@link #layered}, the
+     * 16-bit index of a layer of the texture array bound with {@link #bindTextureArray(TextureArray)}.
+     * Either way, texture changes don't break the batch.
+     */
     public abstract static class Textured2DQuadRenderer extends Depth2DRenderer {
 
         static long currentTextureID;
+        static int textureArray;
+
+        /**
+         * Whether quads reference a layer of a texture array instead of a bindless handle, for contexts lacking
+         * <code>GL_ARB_bindless_texture</code>.
+         */
+        protected final boolean layered;
 
-        protected Textured2DQuadRenderer(int quadCapacity, VertexFormat format) {
-            super(quadCapacity, format);
+        protected Textured2DQuadRenderer(int quadCapacity, int segments, VertexFormat format, boolean layered) {
+            this(quadCapacity, segments, format, layered, BufferStreamingStrategies.selected());
+        }
+
+        protected Textured2DQuadRenderer(int quadCapacity, int segments, VertexFormat format, boolean layered,
+                                         BufferStreamingStrategy.Factory streaming) {
+            super(quadCapacity, segments, format, streaming);
+            this.layered = layered;
         }
 
         @Override
         protected void on4thVertex() {
-            if (currentTextureID == 0)
-                throw new RuntimeException("No texture bound");
-            instanced_vbo_data.putLong(currentTextureID);
+            if (layered)
+                instanced_vbo_data.putShort((short) checkTexture(currentTextureID, true));
+            else instanced_vbo_data.putLong(checkTexture(currentTextureID, false));
             super.on4thVertex();
         }
+
+        /**
+         * Writes the texture and the z-level of a quad reserved by {@link #reserveQuad()}.
+         * @param quad the index of the quad
+         * @param texture the bindless handle, or the layer if {@link #layered}
+         * @param zlevel the z-level
+         */
+        protected final void putTexture(int quad, long texture, int zlevel) {
+            long ia = instancedAddress(quad);
+            if (layered) {
+                memPutShort(ia, (short) texture);
+                putZLevel(ia + 2, quad, zlevel);
+            } else {
+                memPutLong(ia, texture);
+                putZLevel(ia + 8, quad, zlevel);
+            }
+        }
+
+        /**
+         * Binds the texture array to unit 0 if {@link #layered}.
+         */
+        @Override
+        protected void bindTextures() {
+            if (layered)
+                glBindTextureUnit(0, textureArray);
+        }
+
+        @Override
+        protected int textureKey() {
+            return layered ? textureArray : 0;
+        }
+    }
+
+    /**
+     * Single-vertex-per-quad renderer: each quad is one instanced record holding its whole rectangle
+     * (<code>x1, y1, x2, y2</code>) and every per-quad attribute. Corners are computed by the vertex shader out of
+     * <code>gl_VertexID</code>, see the <code>XENON_UI_QUAD</code> library registered in {@link #init}.
+     * <p>
+     * The per-vertex API is still supported, assuming the vertex order of {@link com.xenon.opengl.RenderUtils}:
+     * only the 1st (upper-left) and 3rd (bottom-right) vertices are kept, along with the color of the 1st one.
+     */
+    public abstract static class ExpandedQuadRenderer extends AbstractQuadRenderer {
+
+        /*
+        * The quad being recorded
+        * */
+        protected float x1, y1, x2, y2, u1, v1, u2, v2;
+        protected int color;
+
+        protected ExpandedQuadRenderer(int quadCapacity, int segments, VertexFormat format) {
+            this(quadCapacity, segments, format, BufferStreamingStrategies.selected());
+        }
+
+        protected ExpandedQuadRenderer(int quadCapacity, int segments, VertexFormat format,
+                                       BufferStreamingStrategy.Factory streaming) {
+            super(quadCapacity, segments, format, true, streaming);
+        }
+
+        @Override
+        public WorldRenderer pos(double x, double y) {
+            switch (vertexCount & 3) {
+                case 0 -> {
+                    x1 = (float) x;
+                    y1 = (float) y;
+                }
+                case 2 -> {
+                    x2 = (float) x;
+                    y2 = (float) y;
+                }
+            }
+            return this;
+        }
+
+        /**
+         * @throws UnsupportedOperationException always
+         */
+        @Override
+        public WorldRenderer pos(double x, double y, double z) {
+            throw uoe();
+        }
+
+        @Override
+        public WorldRenderer tex(double u, double v) {
+            switch (vertexCount & 3) {
+                case 0 -> {
+                    u1 = (float) u;
+                    v1 = (float) v;
+                }
+                case 2 -> {
+                    u2 = (float) u;
+                    v2 = (float) v;
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public WorldRenderer color(int r, int g, int b, int a) {
+            if ((vertexCount & 3) == 0)
+                color = (a & 255) << 24 | (r & 255) << 16 | (g & 255) << 8 | b & 255;
+            return this;
+        }
+
+        @Override
+        protected void endQuad() {
+            writeRecord(memAddress(vbo_data));
+            vbo_data.position(vbo_data.position() + vbo_stride);
+            super.endQuad();
+        }
+
+        /**
+         * Ends the quad whose fields were set directly, as if its 4 vertices went through {@link #endVertex()}.
+         */
+        protected final void emit() {
+            vertexCount += 4;
+            endQuad();
+        }
+
+        /**
+         * Writes the record of the quad being recorded.
+         * @param address the address of the record in the mapped buffer
+         */
+        protected abstract void writeRecord(long address);
+
+        @Override
+        protected int currentZLevel() {
+            return Depth2DRenderer.zlevel;
+        }
+
+        /**
+         * @return the current z-level, normalized
+         */
+        protected static float zlevel() {
+            return zlevel(Depth2DRenderer.zlevel);
+        }
+
+        /**
+         * @param zlevel a z-level
+         * @return the z-level, normalized
+         */
+        protected static float zlevel(int zlevel) {
+            return (zlevel & 255) / 255f;
+        }
+
+        /**
+         * @return the currently bound texture handle
+         * @throws RuntimeException if no texture is bound
+         */
+        protected static long textureHandle() {
+            return checkTexture(Textured2DQuadRenderer.currentTextureID);
+        }
     }
 
 
@@ -226,11 +891,56 @@ public class Renderers {
         private static final VertexFormat stc_format = VertexFormat.of(
                 new VertexFormat.VertexFormatElement(0, VBO_BDG, 2, GL_FLOAT, false),
                 new VertexFormat.VertexFormatElement(1, VBO_BDG, 4, GL_UNSIGNED_BYTE, true),
-                new VertexFormat.VertexFormatElement(2, INST_VBO_BDG, 1, GL_UNSIGNED_BYTE, true)
+                new VertexFormat.VertexFormatElement(2, INST_VBO_BDG, 1, GL_UNSIGNED_BYTE, true,
+                        VertexFormat.Fetch.PER_QUAD)
         );
 
         public POS2_COL_Renderer(int quadCapacity) {
-            super(quadCapacity, stc_format);
+            this(quadCapacity, DEFAULT_RING_SEGMENTS);
+        }
+
+        public POS2_COL_Renderer(int quadCapacity, int segments) {
+            this(quadCapacity, segments, BufferStreamingStrategies.selected());
+        }
+
+        /**
+         * @param quadCapacity the quad capacity
+         * @param segments the number of segments of the streamed buffers
+         * @param streaming how the buffers are streamed, see {@link BufferStreamingStrategies}
+         */
+        public POS2_COL_Renderer(int quadCapacity, int segments, BufferStreamingStrategy.Factory streaming) {
+            super(quadCapacity, segments, stc_format, streaming);
+        }
+
+        @Override
+        public void quad(float x1, float y1, float x2, float y2, int argb) {
+            write(quadAddress(), x1, y1, x2, y2, argb);
+            commitQuad();
+        }
+
+        @Override
+        public boolean concurrentQuad(float x1, float y1, float x2, float y2, int argb, int zlevel) {
+            int quad = reserveQuad();
+            if (quad < 0)   return false;
+            write(quadAddress(quad), x1, y1, x2, y2, argb);
+            putZLevel(instancedAddress(quad), quad, zlevel);
+            return true;
+        }
+
+        private static void write(long a, float x1, float y1, float x2, float y2, int argb) {
+            int c = packColor(argb);
+            memPutFloat(a, x1);
+            memPutFloat(a + 4, y1);
+            memPutInt(a + 8, c);
+            memPutFloat(a + 12, x1);
+            memPutFloat(a + 16, y2);
+            memPutInt(a + 20, c);
+            memPutFloat(a + 24, x2);
+            memPutFloat(a + 28, y2);
+            memPutInt(a + 32, c);
+            memPutFloat(a + 36, x2);
+            memPutFloat(a + 40, y1);
+            memPutInt(a + 44, c);
         }
 
         /**
@@ -249,14 +959,88 @@ public class Renderers {
         private static final VertexFormat stc_format = VertexFormat.of(
                 new VertexFormat.VertexFormatElement(0, VBO_BDG, 2, GL_FLOAT, false),
                 new VertexFormat.VertexFormatElement(1, VBO_BDG, 2, GL_FLOAT, false),
-                new VertexFormat.VertexFormatElement(2, INST_VBO_BDG, 2, GL_UNSIGNED_INT, false),
-                new VertexFormat.VertexFormatElement(3, INST_VBO_BDG, 1, GL_UNSIGNED_BYTE, true)
+                new VertexFormat.VertexFormatElement(2, INST_VBO_BDG, 2, GL_UNSIGNED_INT, false,
+                        VertexFormat.Fetch.PER_QUAD),
+                new VertexFormat.VertexFormatElement(3, INST_VBO_BDG, 1, GL_UNSIGNED_BYTE, true,
+                        VertexFormat.Fetch.PER_QUAD)
         );
-
-        public POS2_TEX_Renderer(int quadCapacity) {
-            super(quadCapacity, stc_format);
-        }
-
+        /**
+         * Same as {@link #stc_format} with a texture array layer instead of a bindless handle
+         */
+        private static final VertexFormat stc_layered_format = VertexFormat.of(
+                new VertexFormat.VertexFormatElement(0, VBO_BDG, 2, GL_FLOAT, false),
+                new VertexFormat.VertexFormatElement(1, VBO_BDG, 2, GL_FLOAT, false),
+                new VertexFormat.VertexFormatElement(2, INST_VBO_BDG, 1, GL_UNSIGNED_SHORT, false,
+                        VertexFormat.Fetch.PER_QUAD),
+                new VertexFormat.VertexFormatElement(3, INST_VBO_BDG, 1, GL_UNSIGNED_BYTE, true,
+                        VertexFormat.Fetch.PER_QUAD)
+        );
+
+        public POS2_TEX_Renderer(int quadCapacity) {
+            this(quadCapacity, DEFAULT_RING_SEGMENTS);
+        }
+
+        public POS2_TEX_Renderer(int quadCapacity, int segments) {
+            this(quadCapacity, segments, false);
+        }
+
+        /**
+         * @param quadCapacity the quad capacity
+         * @param segments the number of segments of the streamed buffers
+         * @param layered whether quads reference texture array layers instead of bindless handles
+         */
+        public POS2_TEX_Renderer(int quadCapacity, int segments, boolean layered) {
+            this(quadCapacity, segments, layered, BufferStreamingStrategies.selected());
+        }
+
+        /**
+         * @param quadCapacity the quad capacity
+         * @param segments the number of segments of the streamed buffers
+         * @param layered whether quads reference texture array layers instead of bindless handles
+         * @param streaming how the buffers are streamed, see {@link BufferStreamingStrategies}
+         */
+        public POS2_TEX_Renderer(int quadCapacity, int segments, boolean layered,
+                                 BufferStreamingStrategy.Factory streaming) {
+            super(quadCapacity, segments, layered ? stc_layered_format : stc_format, layered, streaming);
+        }
+
+        @Override
+        public void quad(float x1, float y1, float x2, float y2, float u1, float v1, float u2, float v2) {
+            write(quadAddress(), x1, y1, x2, y2, u1, v1, u2, v2);
+            commitQuad();
+        }
+
+        @Override
+        public boolean concurrentQuad(float x1, float y1, float x2, float y2, float u1, float v1, float u2, float v2,
+                                      long texture, int zlevel) {
+            checkTexture(texture, layered);
+            int quad = reserveQuad();
+            if (quad < 0)   return false;
+            write(quadAddress(quad), x1, y1, x2, y2, u1, v1, u2, v2);
+            putTexture(quad, texture, zlevel);
+            return true;
+        }
+
+        private static void write(long a, float x1, float y1, float x2, float y2,
+                                  float u1, float v1, float u2, float v2) {
+            memPutFloat(a, x1);
+            memPutFloat(a + 4, y1);
+            memPutFloat(a + 8, u1);
+            memPutFloat(a + 12, v1);
+            memPutFloat(a + 16, x1);
+            memPutFloat(a + 20, y2);
+            memPutFloat(a + 24, u1);
+            memPutFloat(a + 28, v2);
+            memPutFloat(a + 32, x2);
+            memPutFloat(a + 36, y2);
+            memPutFloat(a + 40, u2);
+            memPutFloat(a + 44, v2);
+            memPutFloat(a + 48, x2);
+            memPutFloat(a + 52, y1);
+            memPutFloat(a + 56, u2);
+            memPutFloat(a + 60, v1);
+        }
+
         /**
          * @throws UnsupportedOperationException always
          */
@@ -274,14 +1058,643 @@ public class Renderers {
                 new VertexFormat.VertexFormatElement(0, VBO_BDG, 2, GL_FLOAT, false),
                 new VertexFormat.VertexFormatElement(1, VBO_BDG, 2, GL_FLOAT, false),
                 new VertexFormat.VertexFormatElement(2, VBO_BDG, 4, GL_UNSIGNED_BYTE, true),
-                new VertexFormat.VertexFormatElement(3, INST_VBO_BDG, 2, GL_UNSIGNED_INT, false),
-                new VertexFormat.VertexFormatElement(4, INST_VBO_BDG, 1, GL_UNSIGNED_BYTE, true)
+                new VertexFormat.VertexFormatElement(3, INST_VBO_BDG, 2, GL_UNSIGNED_INT, false,
+                        VertexFormat.Fetch.PER_QUAD),
+                new VertexFormat.VertexFormatElement(4, INST_VBO_BDG, 1, GL_UNSIGNED_BYTE, true,
+                        VertexFormat.Fetch.PER_QUAD)
+        );
+        /**
+         * Same as {@link #stc_format} with a texture array layer instead of a bindless handle
+         */
+        private static final VertexFormat stc_layered_format = VertexFormat.of(
+                new VertexFormat.VertexFormatElement(0, VBO_BDG, 2, GL_FLOAT, false),
+                new VertexFormat.VertexFormatElement(1, VBO_BDG, 2, GL_FLOAT, false),
+                new VertexFormat.VertexFormatElement(2, VBO_BDG, 4, GL_UNSIGNED_BYTE, true),
+                new VertexFormat.VertexFormatElement(3, INST_VBO_BDG, 1, GL_UNSIGNED_SHORT, false,
+                        VertexFormat.Fetch.PER_QUAD),
+                new VertexFormat.VertexFormatElement(4, INST_VBO_BDG, 1, GL_UNSIGNED_BYTE, true,
+                        VertexFormat.Fetch.PER_QUAD)
         );
 
         public POS2D_TEX_COL_Renderer(int quadCapacity) {
-            super(quadCapacity, stc_format);
+            this(quadCapacity, DEFAULT_RING_SEGMENTS);
+        }
+
+        public POS2D_TEX_COL_Renderer(int quadCapacity, int segments) {
+            this(quadCapacity, segments, false);
+        }
+
+        /**
+         * @param quadCapacity the quad capacity
+         * @param segments the number of segments of the streamed buffers
+         * @param layered whether quads reference texture array layers instead of bindless handles
+         */
+        public POS2D_TEX_COL_Renderer(int quadCapacity, int segments, boolean layered) {
+            this(quadCapacity, segments, layered, BufferStreamingStrategies.selected());
+        }
+
+        /**
+         * @param quadCapacity the quad capacity
+         * @param segments the number of segments of the streamed buffers
+         * @param layered whether quads reference texture array layers instead of bindless handles
+         * @param streaming how the buffers are streamed, see {@link BufferStreamingStrategies}
+         */
+        public POS2D_TEX_COL_Renderer(int quadCapacity, int segments, boolean layered,
+                                      BufferStreamingStrategy.Factory streaming) {
+            super(quadCapacity, segments, layered ? stc_layered_format : stc_format, layered, streaming);
+        }
+
+        @Override
+        public void quad(float x1, float y1, float x2, float y2, float u1, float v1, float u2, float v2, int argb) {
+            write(quadAddress(), x1, y1, x2, y2, u1, v1, u2, v2, argb);
+            commitQuad();
+        }
+
+        @Override
+        public boolean concurrentQuad(float x1, float y1, float x2, float y2, float u1, float v1, float u2, float v2,
+                                      int argb, long texture, int zlevel) {
+            checkTexture(texture, layered);
+            int quad = reserveQuad();
+            if (quad < 0)   return false;
+            write(quadAddress(quad), x1, y1, x2, y2, u1, v1, u2, v2, argb);
+            putTexture(quad, texture, zlevel);
+            return true;
+        }
+
+        private static void write(long a, float x1, float y1, float x2, float y2,
+                                  float u1, float v1, float u2, float v2, int argb) {
+            int c = packColor(argb);
+            memPutFloat(a, x1);
+            memPutFloat(a + 4, y1);
+            memPutFloat(a + 8, u1);
+            memPutFloat(a + 12, v1);
+            memPutInt(a + 16, c);
+            memPutFloat(a + 20, x1);
+            memPutFloat(a + 24, y2);
+            memPutFloat(a + 28, u1);
+            memPutFloat(a + 32, v2);
+            memPutInt(a + 36, c);
+            memPutFloat(a + 40, x2);
+            memPutFloat(a + 44, y2);
+            memPutFloat(a + 48, u2);
+            memPutFloat(a + 52, v2);
+            memPutInt(a + 56, c);
+            memPutFloat(a + 60, x2);
+            memPutFloat(a + 64, y1);
+            memPutFloat(a + 68, u2);
+            memPutFloat(a + 72, v1);
+            memPutInt(a + 76, c);
+        }
+
+    }
+
+
+    // Compressed WorldRenderer implementations
+
+    /**
+     * Same as {@link POS2_COL_Renderer} with half float positions, i.e. 8 bytes per vertex instead of 12.
+     * Pixel coordinates are exact down to the half pixel up to 1024, to the pixel up to {@link #MAX_SIZE}, past which
+     * they would snap to multiples of 2: {@link Renderers#init} rejects larger sizes for the compressed renderers.
+     */
+    public static class POS2_COL_CompressedRenderer extends Depth2DRenderer {
+        /**
+         * Largest width or height, in pixels, for which the half float positions of the compressed renderers land on
+         * exact pixels.
+         */
+        public static final int MAX_SIZE = 2048;
+
+        /**
+         * respectively pos, color & zlevel
+         */
+        private static final VertexFormat stc_format = VertexFormat.of(
+                new VertexFormat.VertexFormatElement(0, VBO_BDG, 2, GL_HALF_FLOAT, false),
+                new VertexFormat.VertexFormatElement(1, VBO_BDG, 4, GL_UNSIGNED_BYTE, true),
+                new VertexFormat.VertexFormatElement(2, INST_VBO_BDG, 1, GL_UNSIGNED_BYTE, true,
+                        VertexFormat.Fetch.PER_QUAD)
+        );
+
+        public POS2_COL_CompressedRenderer(int quadCapacity) {
+            this(quadCapacity, DEFAULT_RING_SEGMENTS);
+        }
+
+        public POS2_COL_CompressedRenderer(int quadCapacity, int segments) {
+            this(quadCapacity, segments, BufferStreamingStrategies.selected());
+        }
+
+        /**
+         * @param quadCapacity the quad capacity
+         * @param segments the number of segments of the streamed buffers
+         * @param streaming how the buffers are streamed, see {@link BufferStreamingStrategies}
+         */
+        public POS2_COL_CompressedRenderer(int quadCapacity, int segments, BufferStreamingStrategy.Factory streaming) {
+            super(quadCapacity, segments, stc_format, streaming);
+        }
+
+        @Override
+        public WorldRenderer pos(double x, double y) {
+            vbo_data.putShort(floatToHalf((float) x)).putShort(floatToHalf((float) y));
+            return this;
+        }
+
+        @Override
+        public void quad(float x1, float y1, float x2, float y2, int argb) {
+            write(quadAddress(), x1, y1, x2, y2, argb);
+            commitQuad();
+        }
+
+        @Override
+        public boolean concurrentQuad(float x1, float y1, float x2, float y2, int argb, int zlevel) {
+            int quad = reserveQuad();
+            if (quad < 0)   return false;
+            write(quadAddress(quad), x1, y1, x2, y2, argb);
+            putZLevel(instancedAddress(quad), quad, zlevel);
+            return true;
+        }
+
+        private static void write(long a, float x1, float y1, float x2, float y2, int argb) {
+            int c = packColor(argb);
+            short hx1 = floatToHalf(x1), hy1 = floatToHalf(y1), hx2 = floatToHalf(x2), hy2 = floatToHalf(y2);
+            memPutShort(a, hx1);
+            memPutShort(a + 2, hy1);
+            memPutInt(a + 4, c);
+            memPutShort(a + 8, hx1);
+            memPutShort(a + 10, hy2);
+            memPutInt(a + 12, c);
+            memPutShort(a + 16, hx2);
+            memPutShort(a + 18, hy2);
+            memPutInt(a + 20, c);
+            memPutShort(a + 24, hx2);
+            memPutShort(a + 26, hy1);
+            memPutInt(a + 28, c);
+        }
+
+        /**
+         * @throws UnsupportedOperationException always
+         */
+        @Override
+        public WorldRenderer tex(double u, double v) {
+            throw uoe();
+        }
+    }
+
+    /**
+     * Same as {@link POS2_TEX_Renderer} with half float positions and normalized 16-bit uvs, i.e. 8 bytes per vertex
+     * instead of 16. uvs are clamped to [0, 1].
+     * @see POS2_COL_CompressedRenderer
+     */
+    public static class POS2_TEX_CompressedRenderer extends Textured2DQuadRenderer {
+        /**
+         * respectively pos, tex, texID & zlevel
+         */
+        private static final VertexFormat stc_format = VertexFormat.of(
+                new VertexFormat.VertexFormatElement(0, VBO_BDG, 2, GL_HALF_FLOAT, false),
+                new VertexFormat.VertexFormatElement(1, VBO_BDG, 2, GL_UNSIGNED_SHORT, true),
+                new VertexFormat.VertexFormatElement(2, INST_VBO_BDG, 2, GL_UNSIGNED_INT, false,
+                        VertexFormat.Fetch.PER_QUAD),
+                new VertexFormat.VertexFormatElement(3, INST_VBO_BDG, 1, GL_UNSIGNED_BYTE, true,
+                        VertexFormat.Fetch.PER_QUAD)
+        );
+        /**
+         * Same as {@link #stc_format} with a texture array layer instead of a bindless handle
+         */
+        private static final VertexFormat stc_layered_format = VertexFormat.of(
+                new VertexFormat.VertexFormatElement(0, VBO_BDG, 2, GL_HALF_FLOAT, false),
+                new VertexFormat.VertexFormatElement(1, VBO_BDG, 2, GL_UNSIGNED_SHORT, true),
+                new VertexFormat.VertexFormatElement(2, INST_VBO_BDG, 1, GL_UNSIGNED_SHORT, false,
+                        VertexFormat.Fetch.PER_QUAD),
+                new VertexFormat.VertexFormatElement(3, INST_VBO_BDG, 1, GL_UNSIGNED_BYTE, true,
+                        VertexFormat.Fetch.PER_QUAD)
+        );
+
+        public POS2_TEX_CompressedRenderer(int quadCapacity) {
+            this(quadCapacity, DEFAULT_RING_SEGMENTS);
+        }
+
+        public POS2_TEX_CompressedRenderer(int quadCapacity, int segments) {
+            this(quadCapacity, segments, false);
+        }
+
+        /**
+         * @param quadCapacity the quad capacity
+         * @param segments the number of segments of the streamed buffers
+         * @param layered whether quads reference texture array layers instead of bindless handles
+         */
+        public POS2_TEX_CompressedRenderer(int quadCapacity, int segments, boolean layered) {
+            this(quadCapacity, segments, layered, BufferStreamingStrategies.selected());
+        }
+
+        /**
+         * @param quadCapacity the quad capacity
+         * @param segments the number of segments of the streamed buffers
+         * @param layered whether quads reference texture array layers instead of bindless handles
+         * @param streaming how the buffers are streamed, see {@link BufferStreamingStrategies}
+         */
+        public POS2_TEX_CompressedRenderer(int quadCapacity, int segments, boolean layered,
+                                           BufferStreamingStrategy.Factory streaming) {
+            super(quadCapacity, segments, layered ? stc_layered_format : stc_format, layered, streaming);
+        }
+
+        @Override
+        public WorldRenderer pos(double x, double y) {
+            vbo_data.putShort(floatToHalf((float) x)).putShort(floatToHalf((float) y));
+            return this;
+        }
+
+        @Override
+        public WorldRenderer tex(double u, double v) {
+            vbo_data.putShort(unorm16((float) u)).putShort(unorm16((float) v));
+            return this;
+        }
+
+        @Override
+        public void quad(float x1, float y1, float x2, float y2, float u1, float v1, float u2, float v2) {
+            write(quadAddress(), x1, y1, x2, y2, u1, v1, u2, v2);
+            commitQuad();
+        }
+
+        @Override
+        public boolean concurrentQuad(float x1, float y1, float x2, float y2, float u1, float v1, float u2, float v2,
+                                      long texture, int zlevel) {
+            checkTexture(texture, layered);
+            int quad = reserveQuad();
+            if (quad < 0)   return false;
+            write(quadAddress(quad), x1, y1, x2, y2, u1, v1, u2, v2);
+            putTexture(quad, texture, zlevel);
+            return true;
+        }
+
+        private static void write(long a, float x1, float y1, float x2, float y2,
+                                  float u1, float v1, float u2, float v2) {
+            short hx1 = floatToHalf(x1), hy1 = floatToHalf(y1), hx2 = floatToHalf(x2), hy2 = floatToHalf(y2);
+            short qu1 = unorm16(u1), qv1 = unorm16(v1), qu2 = unorm16(u2), qv2 = unorm16(v2);
+            memPutShort(a, hx1);
+            memPutShort(a + 2, hy1);
+            memPutShort(a + 4, qu1);
+            memPutShort(a + 6, qv1);
+            memPutShort(a + 8, hx1);
+            memPutShort(a + 10, hy2);
+            memPutShort(a + 12, qu1);
+            memPutShort(a + 14, qv2);
+            memPutShort(a + 16, hx2);
+            memPutShort(a + 18, hy2);
+            memPutShort(a + 20, qu2);
+            memPutShort(a + 22, qv2);
+            memPutShort(a + 24, hx2);
+            memPutShort(a + 26, hy1);
+            memPutShort(a + 28, qu2);
+            memPutShort(a + 30, qv1);
+        }
+
+        /**
+         * @throws UnsupportedOperationException always
+         */
+        @Override
+        public WorldRenderer color(int r, int g, int b, int a) {
+            throw new UnsupportedOperationException("color function used in non-colored context");
+        }
+    }
+
+    /**
+     * Same as {@link POS2D_TEX_COL_Renderer} with half float positions and normalized 16-bit uvs, i.e. 12 bytes per
+     * vertex instead of 20. uvs are clamped to [0, 1].
+     * @see POS2_COL_CompressedRenderer
+     */
+    public static class POS2D_TEX_COL_CompressedRenderer extends Textured2DQuadRenderer {
+        /**
+         * respectively pos, tex, color, texID & zlevel
+         */
+        private static final VertexFormat stc_format = VertexFormat.of(
+                new VertexFormat.VertexFormatElement(0, VBO_BDG, 2, GL_HALF_FLOAT, false),
+                new VertexFormat.VertexFormatElement(1, VBO_BDG, 2, GL_UNSIGNED_SHORT, true),
+                new VertexFormat.VertexFormatElement(2, VBO_BDG, 4, GL_UNSIGNED_BYTE, true),
+                new VertexFormat.VertexFormatElement(3, INST_VBO_BDG, 2, GL_UNSIGNED_INT, false,
+                        VertexFormat.Fetch.PER_QUAD),
+                new VertexFormat.VertexFormatElement(4, INST_VBO_BDG, 1, GL_UNSIGNED_BYTE, true,
+                        VertexFormat.Fetch.PER_QUAD)
+        );
+        /**
+         * Same as {@link #stc_format} with a texture array layer instead of a bindless handle
+         */
+        private static final VertexFormat stc_layered_format = VertexFormat.of(
+                new VertexFormat.VertexFormatElement(0, VBO_BDG, 2, GL_HALF_FLOAT, false),
+                new VertexFormat.VertexFormatElement(1, VBO_BDG, 2, GL_UNSIGNED_SHORT, true),
+                new VertexFormat.VertexFormatElement(2, VBO_BDG, 4, GL_UNSIGNED_BYTE, true),
+                new VertexFormat.VertexFormatElement(3, INST_VBO_BDG, 1, GL_UNSIGNED_SHORT, false,
+                        VertexFormat.Fetch.PER_QUAD),
+                new VertexFormat.VertexFormatElement(4, INST_VBO_BDG, 1, GL_UNSIGNED_BYTE, true,
+                        VertexFormat.Fetch.PER_QUAD)
+        );
+
+        public POS2D_TEX_COL_CompressedRenderer(int quadCapacity) {
+            this(quadCapacity, DEFAULT_RING_SEGMENTS);
+        }
+
+        public POS2D_TEX_COL_CompressedRenderer(int quadCapacity, int segments) {
+            this(quadCapacity, segments, false);
+        }
+
+        /**
+         * @param quadCapacity the quad capacity
+         * @param segments the number of segments of the streamed buffers
+         * @param layered whether quads reference texture array layers instead of bindless handles
+         */
+        public POS2D_TEX_COL_CompressedRenderer(int quadCapacity, int segments, boolean layered) {
+            this(quadCapacity, segments, layered, BufferStreamingStrategies.selected());
+        }
+
+        /**
+         * @param quadCapacity the quad capacity
+         * @param segments the number of segments of the streamed buffers
+         * @param layered whether quads reference texture array layers instead of bindless handles
+         * @param streaming how the buffers are streamed, see {@link BufferStreamingStrategies}
+         */
+        public POS2D_TEX_COL_CompressedRenderer(int quadCapacity, int segments, boolean layered,
+                                                BufferStreamingStrategy.Factory streaming) {
+            super(quadCapacity, segments, layered ? stc_layered_format : stc_format, layered, streaming);
+        }
+
+        @Override
+        public WorldRenderer pos(double x, double y) {
+            vbo_data.putShort(floatToHalf((float) x)).putShort(floatToHalf((float) y));
+            return this;
+        }
+
+        @Override
+        public WorldRenderer tex(double u, double v) {
+            vbo_data.putShort(unorm16((float) u)).putShort(unorm16((float) v));
+            return this;
+        }
+
+        @Override
+        public void quad(float x1, float y1, float x2, float y2, float u1, float v1, float u2, float v2, int argb) {
+            write(quadAddress(), x1, y1, x2, y2, u1, v1, u2, v2, argb);
+            commitQuad();
+        }
+
+        @Override
+        public boolean concurrentQuad(float x1, float y1, float x2, float y2, float u1, float v1, float u2, float v2,
+                                      int argb, long texture, int zlevel) {
+            checkTexture(texture, layered);
+            int quad = reserveQuad();
+            if (quad < 0)   return false;
+            write(quadAddress(quad), x1, y1, x2, y2, u1, v1, u2, v2, argb);
+            putTexture(quad, texture, zlevel);
+            return true;
+        }
+
+        private static void write(long a, float x1, float y1, float x2, float y2,
+                                  float u1, float v1, float u2, float v2, int argb) {
+            int c = packColor(argb);
+            short hx1 = floatToHalf(x1), hy1 = floatToHalf(y1), hx2 = floatToHalf(x2), hy2 = floatToHalf(y2);
+            short qu1 = unorm16(u1), qv1 = unorm16(v1), qu2 = unorm16(u2), qv2 = unorm16(v2);
+            memPutShort(a, hx1);
+            memPutShort(a + 2, hy1);
+            memPutShort(a + 4, qu1);
+            memPutShort(a + 6, qv1);
+            memPutInt(a + 8, c);
+            memPutShort(a + 12, hx1);
+            memPutShort(a + 14, hy2);
+            memPutShort(a + 16, qu1);
+            memPutShort(a + 18, qv2);
+            memPutInt(a + 20, c);
+            memPutShort(a + 24, hx2);
+            memPutShort(a + 26, hy2);
+            memPutShort(a + 28, qu2);
+            memPutShort(a + 30, qv2);
+            memPutInt(a + 32, c);
+            memPutShort(a + 36, hx2);
+            memPutShort(a + 38, hy1);
+            memPutShort(a + 40, qu2);
+            memPutShort(a + 42, qv1);
+            memPutInt(a + 44, c);
+        }
+    }
+
+
+    // Expanded WorldRenderer implementations
+
+    public static class POS2_COL_QuadRenderer extends ExpandedQuadRenderer {
+        /**
+         * respectively rect, color & zlevel, all per quad
+         */
+        private static final VertexFormat stc_format = VertexFormat.of(
+                new VertexFormat.VertexFormatElement(0, VBO_BDG, 4, GL_FLOAT, false),
+                new VertexFormat.VertexFormatElement(1, VBO_BDG, 4, GL_UNSIGNED_BYTE, true),
+                new VertexFormat.VertexFormatElement(2, VBO_BDG, 1, GL_FLOAT, false)
+        );
+
+        public POS2_COL_QuadRenderer(int quadCapacity) {
+            this(quadCapacity, DEFAULT_RING_SEGMENTS);
+        }
+
+        public POS2_COL_QuadRenderer(int quadCapacity, int segments) {
+            this(quadCapacity, segments, BufferStreamingStrategies.selected());
+        }
+
+        /**
+         * @param quadCapacity the quad capacity
+         * @param segments the number of segments of the streamed buffers
+         * @param streaming how the buffers are streamed, see {@link BufferStreamingStrategies}
+         */
+        public POS2_COL_QuadRenderer(int quadCapacity, int segments, BufferStreamingStrategy.Factory streaming) {
+            super(quadCapacity, segments, stc_format, streaming);
+        }
+
+        /**
+         * @throws UnsupportedOperationException always
+         */
+        @Override
+        public WorldRenderer tex(double u, double v) {
+            throw uoe();
         }
 
+        @Override
+        public void quad(float x1, float y1, float x2, float y2, int argb) {
+            this.x1 = x1;
+            this.y1 = y1;
+            this.x2 = x2;
+            this.y2 = y2;
+            color = argb;
+            emit();
+        }
+
+        @Override
+        public boolean concurrentQuad(float x1, float y1, float x2, float y2, int argb, int zlevel) {
+            int quad = reserveQuad();
+            if (quad < 0)   return false;
+            write(quadAddress(quad), x1, y1, x2, y2, argb, zlevel(zlevel));
+            concurrentSortKey(quad, zlevel);
+            return true;
+        }
+
+        @Override
+        protected void writeRecord(long a) {
+            write(a, x1, y1, x2, y2, color, zlevel());
+        }
+
+        private static void write(long a, float x1, float y1, float x2, float y2, int argb, float z) {
+            memPutFloat(a, x1);
+            memPutFloat(a + 4, y1);
+            memPutFloat(a + 8, x2);
+            memPutFloat(a + 12, y2);
+            memPutInt(a + 16, packColor(argb));
+            memPutFloat(a + 20, z);
+        }
+    }
+
+    public static class POS2_TEX_QuadRenderer extends ExpandedQuadRenderer {
+        /**
+         * respectively rect, uv rect, texID & zlevel, all per quad
+         */
+        private static final VertexFormat stc_format = VertexFormat.of(
+                new VertexFormat.VertexFormatElement(0, VBO_BDG, 4, GL_FLOAT, false),
+                new VertexFormat.VertexFormatElement(1, VBO_BDG, 4, GL_FLOAT, false),
+                new VertexFormat.VertexFormatElement(2, VBO_BDG, 2, GL_UNSIGNED_INT, false),
+                new VertexFormat.VertexFormatElement(3, VBO_BDG, 1, GL_FLOAT, false)
+        );
+
+        public POS2_TEX_QuadRenderer(int quadCapacity) {
+            this(quadCapacity, DEFAULT_RING_SEGMENTS);
+        }
+
+        public POS2_TEX_QuadRenderer(int quadCapacity, int segments) {
+            this(quadCapacity, segments, BufferStreamingStrategies.selected());
+        }
+
+        /**
+         * @param quadCapacity the quad capacity
+         * @param segments the number of segments of the streamed buffers
+         * @param streaming how the buffers are streamed, see {@link BufferStreamingStrategies}
+         */
+        public POS2_TEX_QuadRenderer(int quadCapacity, int segments, BufferStreamingStrategy.Factory streaming) {
+            super(quadCapacity, segments, stc_format, streaming);
+        }
+
+        /**
+         * @throws UnsupportedOperationException always
+         */
+        @Override
+        public WorldRenderer color(int r, int g, int b, int a) {
+            throw new UnsupportedOperationException("color function used in non-colored context");
+        }
+
+        @Override
+        public void quad(float x1, float y1, float x2, float y2, float u1, float v1, float u2, float v2) {
+            this.x1 = x1;
+            this.y1 = y1;
+            this.x2 = x2;
+            this.y2 = y2;
+            this.u1 = u1;
+            this.v1 = v1;
+            this.u2 = u2;
+            this.v2 = v2;
+            emit();
+        }
+
+        @Override
+        public boolean concurrentQuad(float x1, float y1, float x2, float y2, float u1, float v1, float u2, float v2,
+                                      long texture, int zlevel) {
+            checkTexture(texture);
+            int quad = reserveQuad();
+            if (quad < 0)   return false;
+            write(quadAddress(quad), x1, y1, x2, y2, u1, v1, u2, v2, texture, zlevel(zlevel));
+            concurrentSortKey(quad, zlevel);
+            return true;
+        }
+
+        @Override
+        protected void writeRecord(long a) {
+            write(a, x1, y1, x2, y2, u1, v1, u2, v2, textureHandle(), zlevel());
+        }
+
+        private static void write(long a, float x1, float y1, float x2, float y2,
+                                  float u1, float v1, float u2, float v2, long texture, float z) {
+            memPutFloat(a, x1);
+            memPutFloat(a + 4, y1);
+            memPutFloat(a + 8, x2);
+            memPutFloat(a + 12, y2);
+            memPutFloat(a + 16, u1);
+            memPutFloat(a + 20, v1);
+            memPutFloat(a + 24, u2);
+            memPutFloat(a + 28, v2);
+            memPutLong(a + 32, texture);
+            memPutFloat(a + 40, z);
+        }
+    }
+
+    public static class POS2D_TEX_COL_QuadRenderer extends ExpandedQuadRenderer {
+        /**
+         * respectively rect, uv rect, color, texID & zlevel, all per quad
+         */
+        private static final VertexFormat stc_format = VertexFormat.of(
+                new VertexFormat.VertexFormatElement(0, VBO_BDG, 4, GL_FLOAT, false),
+                new VertexFormat.VertexFormatElement(1, VBO_BDG, 4, GL_FLOAT, false),
+                new VertexFormat.VertexFormatElement(2, VBO_BDG, 4, GL_UNSIGNED_BYTE, true),
+                new VertexFormat.VertexFormatElement(3, VBO_BDG, 2, GL_UNSIGNED_INT, false),
+                new VertexFormat.VertexFormatElement(4, VBO_BDG, 1, GL_FLOAT, false)
+        );
+
+        public POS2D_TEX_COL_QuadRenderer(int quadCapacity) {
+            this(quadCapacity, DEFAULT_RING_SEGMENTS);
+        }
+
+        public POS2D_TEX_COL_QuadRenderer(int quadCapacity, int segments) {
+            this(quadCapacity, segments, BufferStreamingStrategies.selected());
+        }
+
+        /**
+         * @param quadCapacity the quad capacity
+         * @param segments the number of segments of the streamed buffers
+         * @param streaming how the buffers are streamed, see {@link BufferStreamingStrategies}
+         */
+        public POS2D_TEX_COL_QuadRenderer(int quadCapacity, int segments, BufferStreamingStrategy.Factory streaming) {
+            super(quadCapacity, segments, stc_format, streaming);
+        }
+
+        @Override
+        public void quad(float x1, float y1, float x2, float y2, float u1, float v1, float u2, float v2, int argb) {
+            this.x1 = x1;
+            this.y1 = y1;
+            this.x2 = x2;
+            this.y2 = y2;
+            this.u1 = u1;
+            this.v1 = v1;
+            this.u2 = u2;
+            this.v2 = v2;
+            color = argb;
+            emit();
+        }
+
+        @Override
+        public boolean concurrentQuad(float x1, float y1, float x2, float y2, float u1, float v1, float u2, float v2,
+                                      int argb, long texture, int zlevel) {
+            checkTexture(texture);
+            int quad = reserveQuad();
+            if (quad < 0)   return false;
+            write(quadAddress(quad), x1, y1, x2, y2, u1, v1, u2, v2, argb, texture, zlevel(zlevel));
+            concurrentSortKey(quad, zlevel);
+            return true;
+        }
+
+        @Override
+        protected void writeRecord(long a) {
+            write(a, x1, y1, x2, y2, u1, v1, u2, v2, color, textureHandle(), zlevel());
+        }
+
+        private static void write(long a, float x1, float y1, float x2, float y2,
+                                  float u1, float v1, float u2, float v2, int argb, long texture, float z) {
+            memPutFloat(a, x1);
+            memPutFloat(a + 4, y1);
+            memPutFloat(a + 8, x2);
+            memPutFloat(a + 12, y2);
+            memPutFloat(a + 16, u1);
+            memPutFloat(a + 20, v1);
+            memPutFloat(a + 24, u2);
+            memPutFloat(a + 28, v2);
+            memPutInt(a + 32, packColor(argb));
+            memPutLong(a + 36, texture);
+            memPutFloat(a + 44, z);
+        }
     }
 
 }
@@ -0,0 +1,72 @@
+package com.xenon.opengl.abstraction;
+
+import com.xenon.glfw.OpenGL;
+import com.xenon.glfw.abstraction.Disposable;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL45.*;
+
+/**
+ * Same-sized RGBA textures packed as the layers of a single <code>GL_TEXTURE_2D_ARRAY</code>, sampled by the
+ * layered textured renderers when bindless textures are unavailable (see
+ * {@link com.xenon.glfw.GLFWContext#bindlessTextures()}). A quad references its texture by layer index,
+ * so texture changes don't break the batch.
+ */
+@OpenGL("Requires OpenGL 4.5 (DSA)")
+public class TextureArray implements Disposable {
+
+    public final int id;
+    public final int width, height, capacity;
+    private int layers;
+
+    /**
+     * Allocates the storage of <code>capacity</code> layers of <code>width * height</code> RGBA8 texels.
+     * @param width the width of every texture
+     * @param height the height of every texture
+     * @param capacity the maximum number of layers, at most 65536 and <code>GL_MAX_ARRAY_TEXTURE_LAYERS</code>
+     * @throws IllegalArgumentException if <code>capacity</code> exceeds the limits
+     */
+    public TextureArray(int width, int height, int capacity) {
+        if (capacity < 1 || capacity > 0x10000 || capacity > glGetInteger(GL_MAX_ARRAY_TEXTURE_LAYERS))
+            throw new IllegalArgumentException("Unsupported texture array capacity: " + capacity);
+        this.width = width;
+        this.height = height;
+        this.capacity = capacity;
+        id = glCreateTextures(GL_TEXTURE_2D_ARRAY);
+        glTextureStorage3D(id, 1, GL_RGBA8, width, height, capacity);
+        glTextureParameteri(id, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        glTextureParameteri(id, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTextureParameteri(id, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTextureParameteri(id, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+    }
+
+    /**
+     * Uploads a texture into the next free layer.
+     * @param rgba <code>width * height</code> RGBA8 texels, row by row
+     * @return the layer of the texture, to pass to {@link Renderers#bindTexture(int)}
+     * @throws IllegalArgumentException if <code>rgba</code> doesn't hold exactly one texture
+     * @throws RuntimeException if every layer is taken
+     */
+    public int add(ByteBuffer rgba) {
+        if (rgba.remaining() != width * height * 4)
+            throw new IllegalArgumentException("Expected " + width + 'x' + height + " RGBA8 texels, got "
+                    + rgba.remaining() + " bytes");
+        if (layers == capacity)
+            throw new RuntimeException("Texture array full: " + capacity + " layers");
+        glTextureSubImage3D(id, 0, 0, 0, layers, width, height, 1, GL_RGBA, GL_UNSIGNED_BYTE, rgba);
+        return layers++;
+    }
+
+    /**
+     * @return the number of layers taken
+     */
+    public int layers() {
+        return layers;
+    }
+
+    @Override
+    public void dispose() {
+        glDeleteTextures(id);
+    }
+}
@@ -0,0 +1,196 @@
+package com.xenon.opengl.abstraction;
+
+import com.xenon.glfw.OpenGL;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import static org.lwjgl.opengl.ARBBindlessTexture.*;
+import static org.lwjgl.opengl.GL45.*;
+
+/**
+ * Bindless texture handle residency manager.
+ * <p>
+ * Handles are created lazily on first use of a texture, and made resident whenever a texture is used while not
+ * resident. Resident textures are accounted in bytes against a budget: at the end of each frame
+ * (see {@link #endFrame()}), the least recently used resident textures are made non-resident until the budget is
+ * met again. Textures used during the current frame are never evicted, since pending draws reference them, so the
+ * budget may be temporarily exceeded but eviction never stalls.
+ * <p>
+ * Not thread-safe, handles must be requested on the render thread.
+ */
+@OpenGL("Requires OpenGL 4.5 (DSA) + GL_ARB_bindless_texture")
+public class TextureResidency {
+
+    /**
+     * Default budget of {@link Renderers}, 256 MiB.
+     */
+    public static final long DEFAULT_BUDGET = 256L << 20;
+
+    private static final class Entry {
+        final long handle, size;
+        boolean resident;
+        long frame;
+
+        Entry(long handle, long size) {
+            this.handle = handle;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Known textures, least recently used first.
+     */
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long budget, residentBytes;
+    private long frame;
+    private int hits, misses, evictions;
+
+    /**
+     * @param budget the maximum number of bytes of resident textures, beyond the ones used in a frame
+     */
+    public TextureResidency(long budget) {
+        budget(budget);
+    }
+
+    /**
+     * Gets the handle of <code>texture</code>, creating it and making it resident if needed, and marks the texture
+     * as used during the current frame.
+     * @param texture the texture id
+     * @return the resident bindless handle
+     */
+    public long handle(int texture) {
+        Entry e = entries.get(texture);
+        if (e == null) {
+            e = new Entry(glGetTextureHandleARB(texture), sizeOf(texture));
+            entries.put(texture, e);
+        }
+        if (e.resident)
+            hits++;
+        else {
+            glMakeTextureHandleResidentARB(e.handle);
+            e.resident = true;
+            residentBytes += e.size;
+            misses++;
+        }
+        e.frame = frame;
+        return e.handle;
+    }
+
+    /**
+     * Ends the current frame, evicting the least recently used textures not used during this frame as long as the
+     * resident textures exceed the budget.
+     */
+    public void endFrame() {
+        for (Iterator<Entry> it = entries.values().iterator(); residentBytes > budget && it.hasNext();) {
+            Entry e = it.next();
+            if (e.frame == frame)   // every next entry is more recent
+                break;
+            if (e.resident) {
+                glMakeTextureHandleNonResidentARB(e.handle);
+                e.resident = false;
+                residentBytes -= e.size;
+                evictions++;
+            }
+        }
+        frame++;
+    }
+
+    /**
+     * Stops tracking <code>texture</code>, making it non-resident. Must be called before deleting a texture
+     * obtained through {@link #handle(int)}.
+     * @param texture the texture id
+     */
+    public void forget(int texture) {
+        Entry e = entries.remove(texture);
+        if (e != null && e.resident) {
+            glMakeTextureHandleNonResidentARB(e.handle);
+            residentBytes -= e.size;
+        }
+    }
+
+    /**
+     * @param budget the new maximum number of bytes of resident textures, enforced at the next {@link #endFrame()}
+     * @throws IllegalArgumentException if <code>budget</code> is negative
+     */
+    public void budget(long budget) {
+        if (budget < 0)
+            throw new IllegalArgumentException("Negative residency budget: " + budget);
+        this.budget = budget;
+    }
+
+    /**
+     * @return the number of bytes of the currently resident textures
+     */
+    public long residentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * @return the number of {@link #handle(int)} calls on already resident textures since the last
+     * {@link #resetCounters()}
+     */
+    public int hits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of textures made resident by {@link #handle(int)} since the last {@link #resetCounters()}
+     */
+    public int misses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of textures made non-resident by {@link #endFrame()} since the last
+     * {@link #resetCounters()}
+     */
+    public int evictions() {
+        return evictions;
+    }
+
+    /**
+     * Resets {@link #hits()}, {@link #misses()} and {@link #evictions()}.
+     */
+    public void resetCounters() {
+        hits = misses = evictions = 0;
+    }
+
+    /**
+     * Makes every tracked texture non-resident.
+     */
+    public void clear() {
+        for (Entry e : entries.values())
+            if (e.resident)
+                glMakeTextureHandleNonResidentARB(e.handle);
+        entries.clear();
+        residentBytes = 0;
+    }
+
+    /**
+     * @param texture the texture id
+     * @return the number of bytes of all the levels of <code>texture</code>, as reported by OpenGL
+     */
+    private static long sizeOf(int texture) {
+        long size = 0;
+        for (int level = 0; level < 32; level++) {
+            int width = glGetTextureLevelParameteri(texture, level, GL_TEXTURE_WIDTH);
+            if (width == 0)
+                break;
+            if (glGetTextureLevelParameteri(texture, level, GL_TEXTURE_COMPRESSED) == GL_TRUE) {
+                size += glGetTextureLevelParameteri(texture, level, GL_TEXTURE_COMPRESSED_IMAGE_SIZE);
+                continue;
+            }
+            long texels = (long) width * glGetTextureLevelParameteri(texture, level, GL_TEXTURE_HEIGHT)
+                    * glGetTextureLevelParameteri(texture, level, GL_TEXTURE_DEPTH);
+            int bits = glGetTextureLevelParameteri(texture, level, GL_TEXTURE_RED_SIZE)
+                    + glGetTextureLevelParameteri(texture, level, GL_TEXTURE_GREEN_SIZE)
+                    + glGetTextureLevelParameteri(texture, level, GL_TEXTURE_BLUE_SIZE)
+                    + glGetTextureLevelParameteri(texture, level, GL_TEXTURE_ALPHA_SIZE)
+                    + glGetTextureLevelParameteri(texture, level, GL_TEXTURE_DEPTH_SIZE)
+                    + glGetTextureLevelParameteri(texture, level, GL_TEXTURE_STENCIL_SIZE);
+            size += texels * ((bits + 7) >> 3);
+        }
+        return size;
+    }
+}
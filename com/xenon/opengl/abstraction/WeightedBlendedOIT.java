@@ -0,0 +1,207 @@
+package com.xenon.opengl.abstraction;
+
+import com.xenon.glfw.OpenGL;
+import com.xenon.glfw.ShaderProgram;
+import com.xenon.glfw.abstraction.Disposable;
+import org.lwjgl.system.MemoryStack;
+
+import java.nio.IntBuffer;
+
+import static com.xenon.glfw.GLTools.*;
+import static org.lwjgl.glfw.GLFW.glfwGetCurrentContext;
+import static org.lwjgl.glfw.GLFW.glfwGetFramebufferSize;
+import static org.lwjgl.opengl.GL45.*;
+
+/**
+ * Render targets of weighted blended order-independent transparency: translucent fragments are summed, weighted
+ * by depth and alpha, into an accumulation target (<code>RGBA16F</code>) while a revealage target
+ * (<code>R16F</code>) multiplies their <code>1 - alpha</code>. A fullscreen composite then resolves both onto the
+ * default framebuffer, whatever the number and the order of the translucent layers.
+ * <p>
+ * Translucent quads are depth-tested against the opaque ones: the depth of the default framebuffer is blitted
+ * into a <code>DEPTH24_STENCIL8</code> renderbuffer, which must match the default framebuffer's depth format.
+ * The targets follow the size of the default framebuffer, recreated by {@link #begin()} whenever it changes.
+ * Fragment shaders write the targets through the <code>XENON_OIT</code> library, see
+ * {@link com.xenon.opengl.debug.Circe#weightedBlendedVariant(String)}.
+ */
+@OpenGL("Requires OpenGL 4.5 (DSA + Indexed Blending)")
+public class WeightedBlendedOIT implements Disposable {
+
+    /**
+     * Weight function and target writes, registered as the <code>XENON_OIT</code> library by {@link Renderers}.
+     * Outputs <code>xenon_accum</code> and <code>xenon_reveal</code> are declared by the fragment shader.
+     */
+    public static final String LIBRARY = """
+            float xenon_oit_weight(float z, float a)
+            {
+                return clamp(pow(min(1.0, a * 10.0) + 0.01, 3.0) * 1e8 * pow(1.0 - z * 0.9, 3.0), 1e-2, 3e3);
+            }
+            void xenon_oit_write(vec4 color)
+            {
+                xenon_accum = vec4(color.rgb * color.a, color.a) * xenon_oit_weight(gl_FragCoord.z, color.a);
+                xenon_reveal = color.a;
+            }
+            """;
+
+    private static final String COMPOSITE_VERTEX = """
+            void main()
+            {
+                gl_Position = vec4(vec2(gl_VertexID << 1 & 2, gl_VertexID & 2) * 2.0 - 1.0, 0.0, 1.0);
+            }
+            """;
+
+    private static final String COMPOSITE_FRAGMENT = """
+            layout (binding=0) uniform sampler2D accumTex;
+            layout (binding=1) uniform sampler2D revealTex;
+            layout (location=0) out vec4 outCol;
+
+            void main()
+            {
+                ivec2 texel = ivec2(gl_FragCoord.xy);
+                float reveal = texelFetch(revealTex, texel, 0).r;
+                if (reveal == 1.0)
+                    discard;
+                vec4 accum = texelFetch(accumTex, texel, 0);
+                outCol = vec4(accum.rgb / clamp(accum.a, 1e-4, 5e4), reveal);
+            }
+            """;
+
+    private int width, height;
+    private int accum, reveal, depth;
+    private final int fbo, vao;
+    private final ShaderProgram composite;
+    private boolean blending, depthWrites;
+
+    /**
+     * @param width the width of the default framebuffer
+     * @param height the height of the default framebuffer
+     * @throws RuntimeException if the default framebuffer's depth is not <code>DEPTH24_STENCIL8</code>, which the
+     * depth blit requires, or if the framebuffer is incomplete
+     */
+    public WeightedBlendedOIT(int width, int height) {
+        checkDefaultDepth();
+        fbo = glCreateFramebuffers();
+        glNamedFramebufferDrawBuffers(fbo, new int[]{GL_COLOR_ATTACHMENT0, GL_COLOR_ATTACHMENT1});
+        createTargets(width, height);
+
+        vao = glCreateVertexArrays();
+        composite = ShaderProgram.build(COMPOSITE_VERTEX, COMPOSITE_FRAGMENT);
+    }
+
+    /*
+    * The default framebuffer has no internal format to query, its depth and stencil sizes and types are compared
+    * instead
+    * */
+    private static void checkDefaultDepth() {
+        int depthBits = glGetNamedFramebufferAttachmentParameteri(0, GL_DEPTH, GL_FRAMEBUFFER_ATTACHMENT_DEPTH_SIZE);
+        int stencilBits = glGetNamedFramebufferAttachmentParameteri(0, GL_STENCIL,
+                GL_FRAMEBUFFER_ATTACHMENT_STENCIL_SIZE);
+        int type = depthBits == 0 ? GL_NONE
+                : glGetNamedFramebufferAttachmentParameteri(0, GL_DEPTH, GL_FRAMEBUFFER_ATTACHMENT_COMPONENT_TYPE);
+        if (depthBits != 24 || stencilBits != 8 || type != GL_UNSIGNED_NORMALIZED)
+            throw new RuntimeException("OIT requires a DEPTH24_STENCIL8 default framebuffer to blit its depth from, "
+                    + "got " + depthBits + " depth bits (type 0x" + Integer.toHexString(type) + ") and " + stencilBits
+                    + " stencil bits");
+    }
+
+    /**
+     * Creates the targets at the given size and attaches them.
+     * @param width the width of the default framebuffer
+     * @param height the height of the default framebuffer
+     * @throws RuntimeException if the framebuffer is incomplete
+     */
+    private void createTargets(int width, int height) {
+        this.width = width;
+        this.height = height;
+        accum = glCreateTextures(GL_TEXTURE_2D);
+        glTextureStorage2D(accum, 1, GL_RGBA16F, width, height);
+        reveal = glCreateTextures(GL_TEXTURE_2D);
+        glTextureStorage2D(reveal, 1, GL_R16F, width, height);
+        depth = glCreateRenderbuffers();
+        glNamedRenderbufferStorage(depth, GL_DEPTH24_STENCIL8, width, height);
+
+        glNamedFramebufferTexture(fbo, GL_COLOR_ATTACHMENT0, accum, 0);
+        glNamedFramebufferTexture(fbo, GL_COLOR_ATTACHMENT1, reveal, 0);
+        glNamedFramebufferRenderbuffer(fbo, GL_DEPTH_STENCIL_ATTACHMENT, GL_RENDERBUFFER, depth);
+        int status = glCheckNamedFramebufferStatus(fbo, GL_FRAMEBUFFER);
+        if (status != GL_FRAMEBUFFER_COMPLETE)
+            throw new RuntimeException("Incomplete OIT framebuffer: 0x" + Integer.toHexString(status));
+    }
+
+    private void deleteTargets() {
+        glDeleteRenderbuffers(depth);
+        glDeleteTextures(accum);
+        glDeleteTextures(reveal);
+    }
+
+    /**
+     * Recreates the targets if the size of the default framebuffer changed.
+     * @param width the new width of the default framebuffer
+     * @param height the new height of the default framebuffer
+     */
+    public void resize(int width, int height) {
+        if (width == this.width && height == this.height)
+            return;
+        deleteTargets();
+        createTargets(width, height);
+    }
+
+    /**
+     * Prepares the accumulation pass: resizes the targets to the current framebuffer if needed, copies the depth of
+     * the opaque quads, clears both targets and binds them with additive blending for <code>xenon_accum</code>,
+     * multiplicative for <code>xenon_reveal</code>, and depth writes disabled.
+     */
+    public void begin() {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer w = stack.mallocInt(1), h = stack.mallocInt(1);
+            glfwGetFramebufferSize(glfwGetCurrentContext(), w, h);
+            if (w.get(0) != 0 && h.get(0) != 0)    // minimized
+                resize(w.get(0), h.get(0));
+        }
+        glBlitNamedFramebuffer(0, fbo, 0, 0, width, height, 0, 0, width, height, GL_DEPTH_BUFFER_BIT, GL_NEAREST);
+        glClearNamedFramebufferfv(fbo, GL_COLOR, 0, new float[]{0, 0, 0, 0});
+        glClearNamedFramebufferfv(fbo, GL_COLOR, 1, new float[]{1, 0, 0, 0});
+        glBindFramebuffer(GL_FRAMEBUFFER, fbo);
+
+        blending = blend;
+        depthWrites = glGetBoolean(GL_DEPTH_WRITEMASK);
+        enableBlend();
+        glBlendFunci(0, GL_ONE, GL_ONE);
+        glBlendFunci(1, GL_ZERO, GL_ONE_MINUS_SRC_COLOR);
+        glDepthMask(false);
+    }
+
+    /**
+     * Ends the accumulation pass and composites the translucent layers over the default framebuffer, then restores
+     * the blending, depth test and depth writes states, along with the usual
+     * <code>glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA)</code>.
+     */
+    public void end() {
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        glBlendFunc(GL_ONE_MINUS_SRC_ALPHA, GL_SRC_ALPHA);
+        boolean depthTesting = depthTest;
+        disableDepthTest();
+
+        composite.bind();
+        glBindTextureUnit(0, accum);
+        glBindTextureUnit(1, reveal);
+        bindVAO(vao);
+        glDrawArrays(GL_TRIANGLES, 0, 3);
+
+        glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+        if (depthTesting)
+            enableDepthTest();
+        if (!blending)
+            disableBlend();
+        glDepthMask(depthWrites);
+    }
+
+    @Override
+    public void dispose() {
+        composite.dispose();
+        unbindVAO();
+        glDeleteVertexArrays(vao);
+        glDeleteFramebuffers(fbo);
+        deleteTargets();
+    }
+}
@@ -17,4 +17,254 @@ public interface WorldRenderer extends Disposable {
     WorldRenderer color(int r, int g, int b, int a);
     void endVertex();
     void GPU();
+
+    /**
+     * Writes a whole colored quad at once. Vertices are emitted in the same order as
+     * {@link com.xenon.opengl.RenderUtils#drawColoredRectRaw(WorldRenderer, double, double, double, double, int)}.
+     * Default implementation goes through the per-vertex API.
+     * @param x1 upper-left corner's x
+     * @param y1 upper-left corner's y
+     * @param x2 bottom-right corner's x
+     * @param y2 bottom-right corner's y
+     * @param argb the packed color, as in <code>0xAARRGGBB</code>
+     */
+    default void quad(float x1, float y1, float x2, float y2, int argb) {
+        int r = argb >> 16 & 255;
+        int g = argb >> 8 & 255;
+        int b = argb & 255;
+        int a = argb >> 24 & 255;
+        pos(x1, y1).color(r, g, b, a).endVertex();
+        pos(x1, y2).color(r, g, b, a).endVertex();
+        pos(x2, y2).color(r, g, b, a).endVertex();
+        pos(x2, y1).color(r, g, b, a).endVertex();
+    }
+
+    /**
+     * Writes a whole textured quad at once.
+     * Default implementation goes through the per-vertex API.
+     * @param x1 upper-left corner's x
+     * @param y1 upper-left corner's y
+     * @param x2 bottom-right corner's x
+     * @param y2 bottom-right corner's y
+     * @param u1 upper-left corner's u
+     * @param v1 upper-left corner's v
+     * @param u2 bottom-right corner's u
+     * @param v2 bottom-right corner's v
+     * @see #quad(float, float, float, float, int)
+     */
+    default void quad(float x1, float y1, float x2, float y2, float u1, float v1, float u2, float v2) {
+        pos(x1, y1).tex(u1, v1).endVertex();
+        pos(x1, y2).tex(u1, v2).endVertex();
+        pos(x2, y2).tex(u2, v2).endVertex();
+        pos(x2, y1).tex(u2, v1).endVertex();
+    }
+
+    /**
+     * Writes a whole colored textured quad at once.
+     * Default implementation goes through the per-vertex API.
+     * @param x1 upper-left corner's x
+     * @param y1 upper-left corner's y
+     * @param x2 bottom-right corner's x
+     * @param y2 bottom-right corner's y
+     * @param u1 upper-left corner's u
+     * @param v1 upper-left corner's v
+     * @param u2 bottom-right corner's u
+     * @param v2 bottom-right corner's v
+     * @param argb the packed color, as in <code>0xAARRGGBB</code>
+     * @see #quad(float, float, float, float, int)
+     */
+    default void quad(float x1, float y1, float x2, float y2, float u1, float v1, float u2, float v2, int argb) {
+        int r = argb >> 16 & 255;
+        int g = argb >> 8 & 255;
+        int b = argb & 255;
+        int a = argb >> 24 & 255;
+        pos(x1, y1).tex(u1, v1).color(r, g, b, a).endVertex();
+        pos(x1, y2).tex(u1, v2).color(r, g, b, a).endVertex();
+        pos(x2, y2).tex(u2, v2).color(r, g, b, a).endVertex();
+        pos(x2, y1).tex(u2, v1).color(r, g, b, a).endVertex();
+    }
+
+    /**
+     * Concurrent counterpart of {@link #quad(float, float, float, float, int)}, safe to call from any thread.
+     * The quad is written straight into the mapped buffer through a reserved slot, so per-quad state is passed
+     * explicitly instead of going through {@link Renderers#zlevel(int)}.
+     * <p>
+     * Recording threads must be done, and synchronized with the render thread, before it calls {@link #GPU()}.
+     * A batch is recorded either concurrently or through the single-threaded API, never both.
+     * Quads exceeding the capacity are dropped, see {@link #droppedQuads()}.
+     * @param x1 upper-left corner's x
+     * @param y1 upper-left corner's y
+     * @param x2 bottom-right corner's x
+     * @param y2 bottom-right corner's y
+     * @param argb the packed color, as in <code>0xAARRGGBB</code>
+     * @param zlevel the z-level of the quad
+     * @return whether the quad was recorded, false if it was dropped
+     * @throws UnsupportedOperationException if the renderer doesn't support concurrent recording of colored quads
+     */
+    default boolean concurrentQuad(float x1, float y1, float x2, float y2, int argb, int zlevel) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Concurrent counterpart of {@link #quad(float, float, float, float, float, float, float, float)}.
+     * @param x1 upper-left corner's x
+     * @param y1 upper-left corner's y
+     * @param x2 bottom-right corner's x
+     * @param y2 bottom-right corner's y
+     * @param u1 upper-left corner's u
+     * @param v1 upper-left corner's v
+     * @param u2 bottom-right corner's u
+     * @param v2 bottom-right corner's v
+     * @param texture the bindless texture handle
+     * @param zlevel the z-level of the quad
+     * @return whether the quad was recorded, false if it was dropped
+     * @throws UnsupportedOperationException if the renderer doesn't support concurrent recording of textured quads
+     * @see #concurrentQuad(float, float, float, float, int, int)
+     */
+    default boolean concurrentQuad(float x1, float y1, float x2, float y2, float u1, float v1, float u2, float v2,
+                                   long texture, int zlevel) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Concurrent counterpart of {@link #quad(float, float, float, float, float, float, float, float, int)}.
+     * @param x1 upper-left corner's x
+     * @param y1 upper-left corner's y
+     * @param x2 bottom-right corner's x
+     * @param y2 bottom-right corner's y
+     * @param u1 upper-left corner's u
+     * @param v1 upper-left corner's v
+     * @param u2 bottom-right corner's u
+     * @param v2 bottom-right corner's v
+     * @param argb the packed color, as in <code>0xAARRGGBB</code>
+     * @param texture the bindless texture handle
+     * @param zlevel the z-level of the quad
+     * @return whether the quad was recorded, false if it was dropped
+     * @throws UnsupportedOperationException if the renderer doesn't support concurrent recording of colored
+     * textured quads
+     * @see #concurrentQuad(float, float, float, float, int, int)
+     */
+    default boolean concurrentQuad(float x1, float y1, float x2, float y2, float u1, float v1, float u2, float v2,
+                                   int argb, long texture, int zlevel) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Sets the viewport rectangle quads are tested against by {@link #cull(float, float, float, float, int)}.
+     * Default implementation does nothing, for renderers that don't cull.
+     * @param x1 upper-left corner's x
+     * @param y1 upper-left corner's y
+     * @param x2 bottom-right corner's x
+     * @param y2 bottom-right corner's y
+     */
+    default void viewport(float x1, float y1, float x2, float y2) {}
+
+    /**
+     * Stops testing quads against the viewport, quads with alpha 0 still get culled when blending.
+     * Default implementation does nothing.
+     */
+    default void disableViewport() {}
+
+    /**
+     * Screen-space rejection test, called by {@link com.xenon.opengl.RenderUtils} before emitting a quad.
+     * A quad is culled if it lies entirely outside the viewport (see {@link #viewport(float, float, float, float)}),
+     * or if its alpha is 0 while blending is enabled. Corners may be given in any order.
+     * Default implementation never culls.
+     * @param x1 upper-left corner's x
+     * @param y1 upper-left corner's y
+     * @param x2 bottom-right corner's x
+     * @param y2 bottom-right corner's y
+     * @param argb the packed color, as in <code>0xAARRGGBB</code>
+     * @return whether the quad must not be emitted
+     */
+    default boolean cull(float x1, float y1, float x2, float y2, int argb) {
+        return false;
+    }
+
+    /**
+     * Same as {@link #cull(float, float, float, float, int)} for opaque quads.
+     * @param x1 upper-left corner's x
+     * @param y1 upper-left corner's y
+     * @param x2 bottom-right corner's x
+     * @param y2 bottom-right corner's y
+     * @return whether the quad must not be emitted
+     */
+    default boolean cull(float x1, float y1, float x2, float y2) {
+        return cull(x1, y1, x2, y2, 0xFF000000);
+    }
+
+    /**
+     * Default implementation doesn't count and returns 0.
+     * @return the number of quads culled by {@link #cull(float, float, float, float, int)} since the last
+     * {@link #resetCullingCounters()}
+     */
+    default int culledQuads() {
+        return 0;
+    }
+
+    /**
+     * Default implementation doesn't count and returns 0.
+     * @return the number of quads that passed {@link #cull(float, float, float, float, int)} since the last
+     * {@link #resetCullingCounters()}
+     */
+    default int emittedQuads() {
+        return 0;
+    }
+
+    /**
+     * Resets both {@link #culledQuads()} and {@link #emittedQuads()}.
+     * Default implementation does nothing.
+     */
+    default void resetCullingCounters() {}
+
+    /**
+     * Sets what happens when the quad capacity is reached in the middle of a batch.
+     * Default implementation does nothing, for renderers without a quad capacity.
+     * @param policy the new overflow policy
+     */
+    default void overflowPolicy(OverflowPolicy policy) {}
+
+    /**
+     * Default implementation doesn't track submissions and returns 0.
+     * @return the biggest number of quads ever submitted by a single {@link #GPU()} call, including the quads
+     * drawn earlier by {@link OverflowPolicy#FLUSH} overflows
+     */
+    default int highWaterMark() {
+        return 0;
+    }
+
+    /**
+     * Default implementation never drops quads and returns 0.
+     * @return the number of concurrently recorded quads dropped by the last {@link #GPU()} call for lack of room
+     */
+    default int droppedQuads() {
+        return 0;
+    }
+
+    /**
+     * Opt-in sorting of opaque quads by z-level, front to back, right before they are drawn. Only the draw order
+     * changes, the vertex data stays where it was written, so that the depth test rejects hidden fragments early
+     * instead of shading every covered pixel. Quads of a same z-level keep their submission order.
+     * Quads ended while blending is enabled are translucent, they are always drawn after the opaque ones, back to
+     * front.
+     * @param enabled whether to sort the quads
+     * @throws UnsupportedOperationException if the renderer doesn't support sorting
+     */
+    default void sortFrontToBack(boolean enabled) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * What a WorldRenderer does once its quad capacity is reached.
+     */
+    enum OverflowPolicy {
+        /**
+         * Draws the pending quads right away and keeps on writing from the beginning of the next buffer segment.
+         */
+        FLUSH,
+        /**
+         * Reallocates every buffer to the next power of two, keeping the pending quads.
+         */
+        GROW
+    }
 }
@@ -2,18 +2,25 @@ package com.xenon.opengl.debug;
 
 import com.xenon.opengl.DataFormatElement;
 import com.xenon.opengl.VertexFormat;
+import com.xenon.utils.MathsTools;
 import org.lwjgl.opengl.GLDebugMessageCallbackI;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.function.Consumer;
-import java.util.stream.Stream;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_UNSIGNED_INT_2_10_10_10_REV;
+import static org.lwjgl.opengl.GL30.GL_HALF_FLOAT;
 import static org.lwjgl.opengl.GL30.GL_INVALID_FRAMEBUFFER_OPERATION;
+import static org.lwjgl.opengl.GL33.GL_INT_2_10_10_10_REV;
 
 /**
  * Colossus debug/maintainability utils class.
@@ -22,6 +29,11 @@ import static org.lwjgl.opengl.GL30.GL_INVALID_FRAMEBUFFER_OPERATION;
  */
 public class Circe {
 
+    /**
+     * Version of the generated code, part of the keys of {@link CirceCache} so that entries generated by an older
+     * Circe are never served. Must be bumped whenever the output for a same input changes.
+     */
+    static final int VERSION = 2;
 
     public static String lookupBuffer(ByteBuffer buffer, int binding, VertexFormat format) {
         var b = new StringBuilder("------ ByteBuffer at ").append(buffer).append(" ------\n");
@@ -33,12 +45,22 @@ public class Circe {
         for (int i=0; i < buffer.position();) {
             for (VertexFormat.VertexFormatElement el : els) {
                 b.append("loc: ").append(el.location).append(" (");
-                for (int __ = 0; __ < el.count; __++) {
+                if (VertexFormat.packed(el.type)) {  // the 4 components share a single int
+                    int p = buffer.getInt(i);
+                    boolean signed = el.type == GL_INT_2_10_10_10_REV;
+                    for (int k = 0; k < 4; k++) {
+                        int width = k == 3 ? 2 : 10;
+                        b.append(signed ? p << 32 - 10 * k - width >> 32 - width : p >>> 10 * k & (1 << width) - 1)
+                                .append(',');
+                    }
+                    i += VertexFormat.sizeof(el.type);
+                } else for (int __ = 0; __ < el.count; __++) {
                     switch (el.type) {
                         case GL_BYTE -> b.append(buffer.get(i));
                         case GL_UNSIGNED_BYTE -> b.append(Byte.toUnsignedInt(buffer.get(i)));
                         case GL_SHORT -> b.append(buffer.getShort(i));
                         case GL_UNSIGNED_SHORT -> b.append(Short.toUnsignedInt(buffer.getShort(i)));
+                        case GL_HALF_FLOAT -> b.append(MathsTools.halfToFloat(buffer.getShort(i)));
                         case GL_FLOAT -> b.append(buffer.getFloat(i));
                         case GL_INT -> b.append(buffer.getInt(i));
                         case GL_UNSIGNED_INT -> b.append(Integer.toUnsignedLong(buffer.getInt(i)));
@@ -88,7 +110,13 @@ public class Circe {
     public static void validateVertexShader(String code, VertexFormat format) {
         String[] lines = code.split("\n");
         VertexFormat.VertexFormatElement[] els = format.elements();
-        boolean[] checked = new boolean[els.length];    // necessary in case VertexFormatElements are not in order
+        int maxLocation = -1;
+        for (VertexFormat.VertexFormatElement el : els)
+            maxLocation = Math.max(maxLocation, el.location);
+        boolean[] checked = new boolean[maxLocation + 1];    // necessary in case VertexFormatElements are not in order
+        Arrays.fill(checked, true);    // locations absent from the format need no declaration
+        for (VertexFormat.VertexFormatElement el : els)    // pulled elements have no layout declaration
+            checked[el.location] = el.fetch != VertexFormat.Fetch.ATTRIB;
         for (var line : lines)
             if (line.contains("layout")) {
                 line = line.replaceAll("\\s+", "");
@@ -105,10 +133,22 @@ public class Circe {
     }
 
     public static AbstractMap.SimpleEntry<String, String> parseVertexAndFragment(String code, VertexFormat format) {
-        String[] lines = code.split("\n");
-        Lexer lexer = Lexer.of(lines, 0, lines.length);
+        return parseVertexAndFragment(ByteBuffer.wrap(code.getBytes(StandardCharsets.UTF_8)), format);
+    }
+
+    /**
+     * Same as {@link #parseVertexAndFragment(String, VertexFormat)}, tokenizing the code in place, e.g. straight
+     * from {@link com.xenon.glfw.ResourceUtils#bytes(Path)} or a memory-mapped file.
+     * @param code the vertex and fragment code between the position and the limit, left unchanged. Non-ASCII
+     *             characters may only appear in comments
+     * @param format the vertex format
+     * @return the vertex and fragment GLSL code
+     */
+    public static AbstractMap.SimpleEntry<String, String> parseVertexAndFragment(ByteBuffer code, VertexFormat format) {
+        BufferLexer lexer = new BufferLexer(code);
         skipEmptyLines(lexer);
-        if (!lexer.hasNext() || !lexer.next().is("#") || !lexer.hasNext() || !lexer.next().is("vertex"))
+        if (!lexer.hasNext() || !lexer.isMark(lexer.next(), '#') || !lexer.hasNext()
+                || lexer.kind(lexer.next()) != BufferLexer.VERTEX)
             throw new AssertionError("Expected '#vertex' header at the beginning");
         checkHeaderEnd(lexer, true, "#vertex");
 
@@ -116,7 +156,7 @@ public class Circe {
         var fragmentBuilder = new StringBuilder();
         DataFormatElement[] vertexOutputs = parseShader(lexer, format.elements(), vertexBuilder);
 
-        if (!lexer.hasNext() || !lexer.next().is("fragment"))
+        if (!lexer.hasNext() || lexer.kind(lexer.next()) != BufferLexer.FRAGMENT)
             throw new AssertionError("Expected '#fragment' to separate vertex code from fragment code");
         checkHeaderEnd(lexer, true, "#fragment");
         for (var vertexOutput : vertexOutputs)
@@ -125,17 +165,67 @@ public class Circe {
         parseShader(lexer, vertexOutputs, fragmentBuilder);
 
         if (lexer.hasNext())
-            throw new AssertionError("Fragment code ended with invalid header: "+lexer.next());
+            throw new AssertionError("Fragment code ended with invalid header: "+lexer.content(lexer.next()));
         return new AbstractMap.SimpleEntry<>(vertexBuilder.toString(), fragmentBuilder.toString());
     }
 
+    /*
+    * Domains of the libraries included by the current thread's parsing, if recorded
+    * */
+    private static final ThreadLocal<Set<String>> INCLUDES = new ThreadLocal<>();
+
+    /**
+     * Runs a parsing function, recording the domains of the {@link Polypheme} libraries it includes.
+     * @param includes the set the domains are added to
+     * @param parser the parsing function
+     * @return the result of <code>parser</code>
+     */
+    static <T> T recordIncludes(Set<String> includes, Supplier<T> parser) {
+        Set<String> outer = INCLUDES.get();
+        INCLUDES.set(includes);
+        try {
+            return parser.get();
+        } finally {
+            INCLUDES.set(outer);
+        }
+    }
+
+    private static final Pattern OIT_OUTPUT = Pattern.compile("#outputs\\s*<\\s*0\\s*:\\s*vec4\\s*/\\s*(\\w+)\\s*>");
+
+    /**
+     * Derives the weighted blended order-independent transparency variant of a shader meant for
+     * {@link #parseVertexAndFragment(String, VertexFormat)}. The fragment shader must have a single
+     * <code>vec4</code> output at location 0: it becomes a plain global, the original <code>main</code> is renamed,
+     * and the new <code>main</code> hands the color to the <code>XENON_OIT</code> library, which must be registered
+     * in {@link Polypheme} (see {@link com.xenon.opengl.abstraction.WeightedBlendedOIT#LIBRARY}).
+     * @param code the vertex and fragment code
+     * @return the same code, writing the accumulation and revealage targets
+     * @throws AssertionError if the fragment shader doesn't have a single <code>vec4</code> output at location 0
+     */
+    public static String weightedBlendedVariant(String code) {
+        int fragment = code.indexOf("#fragment");
+        if (fragment < 0)
+            throw new AssertionError("Expected '#fragment' to separate vertex code from fragment code");
+        Matcher m = OIT_OUTPUT.matcher(code).region(fragment, code.length());
+        if (!m.find())
+            throw new AssertionError("Expected a single '#outputs <0: vec4 / name>' header in fragment code");
+        String color = m.group(1);
+        return code.substring(0, m.start())
+                + "#outputs <0: vec4 / xenon_accum; 1: float / xenon_reveal>\n"
+                + "#include <XENON_OIT>\n"
+                + "vec4 " + color + ";\n"
+                + "#define main xenon_shade\n"
+                + code.substring(m.end())
+                + "\n#undef main\nvoid main()\n{\n    xenon_shade();\n    xenon_oit_write(" + color + ");\n}\n";
+    }
+
     public static AbstractMap.SimpleEntry<String, String> parseVertexAndFragmentSeparated(String vertexCode,
                                                                                           String fragmentCode,
                                                                                           VertexFormat format) {
-        String[] vertexLines = vertexCode.split("\n");
-        Lexer lexer = Lexer.of(vertexLines, 0, vertexLines.length);
+        BufferLexer lexer = new BufferLexer(ByteBuffer.wrap(vertexCode.getBytes(StandardCharsets.UTF_8)));
         skipEmptyLines(lexer);
-        if (!lexer.hasNext() || !lexer.next().is("#") || !lexer.hasNext() || !lexer.next().is("vertex"))
+        if (!lexer.hasNext() || !lexer.isMark(lexer.next(), '#') || !lexer.hasNext()
+                || lexer.kind(lexer.next()) != BufferLexer.VERTEX)
             throw new AssertionError("Expected '#vertex' header at the beginning");
         checkHeaderEnd(lexer, true, "#vertex");
 
@@ -144,12 +234,12 @@ public class Circe {
         DataFormatElement[] vertexOutputs = parseShader(lexer, format.elements(), vertexBuilder);
 
         if (lexer.hasNext())
-            throw new AssertionError("Vertex code ended with invalid header: "+lexer.next());
+            throw new AssertionError("Vertex code ended with invalid header: "+lexer.content(lexer.next()));
 
-        String[] fragLines = fragmentCode.split("\n");
-        lexer = Lexer.of(fragLines, 0, fragLines.length);
+        lexer = new BufferLexer(ByteBuffer.wrap(fragmentCode.getBytes(StandardCharsets.UTF_8)));
         skipEmptyLines(lexer);
-        if (!lexer.hasNext() || !lexer.next().is("#") || !lexer.hasNext() || !lexer.next().is("fragment"))
+        if (!lexer.hasNext() || !lexer.isMark(lexer.next(), '#') || !lexer.hasNext()
+                || lexer.kind(lexer.next()) != BufferLexer.FRAGMENT)
             throw new AssertionError("Expected '#fragment' header at the beginning");
         checkHeaderEnd(lexer, true, "#fragment");
         for (var vertexOutput : vertexOutputs)
@@ -158,7 +248,7 @@ public class Circe {
         parseShader(lexer, vertexOutputs, fragmentBuilder);
 
         if (lexer.hasNext())
-            throw new AssertionError("Fragment code ended with invalid header: "+lexer.next());
+            throw new AssertionError("Fragment code ended with invalid header: "+lexer.content(lexer.next()));
         return new AbstractMap.SimpleEntry<>(vertexBuilder.toString(), fragmentBuilder.toString());
     }
 
@@ -169,34 +259,42 @@ public class Circe {
      * @param appendTo the string builder
      * @return the output formats
      */
-    public static DataFormatElement[] parseShader(Lexer lexer, DataFormatElement[] inputs, StringBuilder appendTo) {
+    public static DataFormatElement[] parseShader(BufferLexer lexer, DataFormatElement[] inputs,
+                                                  StringBuilder appendTo) {
         skipEmptyLines(lexer);
         DataFormatElement[] outputs = null;
         boolean in_bracket = false, start_line = true;
         while(lexer.hasNext()) {
-            Token t = lexer.next();
-            final String s = t.content();
-            switch (s) {
-                case "#" -> {
+            int t = lexer.next();
+            int kind = lexer.kind(t);
+            if (kind == BufferLexer.NEWLINE) {
+                start_line = true;
+                appendTo.append('\n');
+                continue;
+            }
+            switch (kind == BufferLexer.MARK ? lexer.mark(t) : 0) {
+                case '#' -> {
                     if (!lexer.hasNext())
                         throw new AssertionError("Expected header keyword after '#', got nothing.");
                     start_line = true;
-                    final String s1 = lexer.next().content;
-                    switch (s1) {
-                        case "inputs" -> {
-                            for (DataFormatElement el : handleInputHeader(lexer, inputs))
-                                el.formatForShader(appendTo);
+                    final int t1 = lexer.next();
+                    switch (lexer.kind(t1)) {
+                        case BufferLexer.INPUTS -> {
+                            DataFormatElement[] parsed = handleInputHeader(lexer, inputs);
+                            for (DataFormatElement el : parsed)
+                                if (pulledInput(inputs, el) == null)
+                                    el.formatForShader(appendTo);
+                            appendPulledInputs(parsed, inputs, appendTo);
                         }
-                        case "outputs" -> {
+                        case BufferLexer.OUTPUTS -> {
                             outputs = handleOutputHeader(lexer);
                             for (DataFormatElement el : outputs)
                                 el.formatForShader(appendTo);
                         }
-                        case "include" -> handleLibHeader(lexer, appendTo);
-                        case "if", "ifdef", "define", "undef", "ifndef", "else", "elif", "endif",
-                                "error", "pragma", "extension", "line" -> {
+                        case BufferLexer.INCLUDE -> handleLibHeader(lexer, appendTo);
+                        case BufferLexer.PREPROCESSOR -> {
                             start_line = false;
-                            appendTo.append(s).append(' ').append(s1);
+                            lexer.appendTo(t1, appendTo.append('#').append(' '));
                         }
                         default -> {
                             lexer.pushLast();   // for higher order function to check if the header is valid
@@ -204,23 +302,19 @@ public class Circe {
                         }
                     }
                 }
-                case "\n" -> {
-                    start_line = true;
-                    appendTo.append(s);
-                }
-                case ";", "," -> {
+                case ';', ',' -> {
                     start_line = false;
-                    appendTo.append(s);
+                    lexer.appendTo(t, appendTo);
                 }
-                case "{" -> {
+                case '{' -> {
                     start_line = false;
                     in_bracket = true;
-                    appendTo.append(s);
+                    appendTo.append('{');
                 }
-                case "}" -> {
+                case '}' -> {
                     start_line = false;
                     in_bracket = false;
-                    appendTo.append(s);
+                    appendTo.append('}');
                 }
                 default -> {
                     if (start_line) {
@@ -228,7 +322,7 @@ public class Circe {
                             appendTo.append(' ').append(' ').append(' ').append(' ');
                     } else appendTo.append(' ');
                     start_line = false;
-                    appendTo.append(s);
+                    lexer.appendTo(t, appendTo);
                 }
             }
         }
@@ -262,9 +356,9 @@ public class Circe {
      *
      * @param lexer the lexer
      * @return the resulting data formats
-     * @see #handleDataFormatHeader(Lexer, String, String, Consumer)
+     * @see #handleDataFormatHeader(BufferLexer, String, String, Consumer)
      */
-    private static DataFormatElement[] handleOutputHeader(Lexer lexer) {
+    private static DataFormatElement[] handleOutputHeader(BufferLexer lexer) {
         List<DataFormatElement> els = new ArrayList<>();
         handleDataFormatHeader(
                 lexer,
@@ -301,9 +395,9 @@ public class Circe {
      * @param lexer the lexer
      * @param els the expected formats as input. must be sorted by location ascending order
      * @return the parsed DataFormatElements
-     * @see #handleDataFormatHeader(Lexer, String, String, Consumer)
+     * @see #handleDataFormatHeader(BufferLexer, String, String, Consumer)
      */
-    private static DataFormatElement[] handleInputHeader(Lexer lexer, DataFormatElement[] els) {
+    private static DataFormatElement[] handleInputHeader(BufferLexer lexer, DataFormatElement[] els) {
         if (els == null || els.length == 0)
             throw new AssertionError("Inputs formats are null");
         final List<DataFormatElement> result = new ArrayList<>();
@@ -312,7 +406,7 @@ public class Circe {
                 "#inputs <location[qualifiers...]: type / name; location: type / name;...>",
                 "in",
                 format -> {
-                    if (format.location >= els.length || !els[format.location].equals(format))
+                    if (format.location >= els.length || !format.equals(els[format.location]))
                         throw new AssertionError("Parsed format doesn't match with expected format. " +
                                 "Expected format: "+els[Math.max(0, Math.min(format.location, els.length - 1))] +
                                 ". Parsed format: "+format);
@@ -321,6 +415,165 @@ public class Circe {
         return result.toArray(new DataFormatElement[0]);
     }
 
+    /**
+     * @param inputs the expected input formats
+     * @param parsed a parsed input format
+     * @return the expected VertexFormatElement matching <code>parsed</code> if it is pulled from a shader storage
+     * buffer or a uniform buffer, null otherwise
+     */
+    private static VertexFormat.VertexFormatElement pulledInput(DataFormatElement[] inputs, DataFormatElement parsed) {
+        return inputs[parsed.location] instanceof VertexFormat.VertexFormatElement el
+                && el.fetch != VertexFormat.Fetch.ATTRIB ? el : null;
+    }
+
+    /**
+     * Generates the GLSL code fetching the pulled inputs (see {@link VertexFormat.Fetch}) out of shader storage
+     * buffers. For each binding <code>B</code> involved, the resulting GLSL code declares:
+     * <code><pre>
+     *     layout (std430, binding=B) readonly buffer xenon_buffer_B { uint xenon_data_B[]; };
+     *     uint xenon_u8_B(uint address);  // as well as xenon_u16_B and xenon_u32_B, working at any byte address
+     * </pre></code>
+     * except for {@link VertexFormat.Fetch#PER_BATCH} bindings, read out of a uniform block instead:
+     * <code><pre>
+     *     layout (std140, binding=B) uniform xenon_batch_B { uvec4 xenon_data_B[N]; };
+     * </pre></code>
+     * Then for each pulled input <code>type name</code>:
+     * <code><pre>
+     *     type xenon_fetch_name(uint record);
+     *     #define name xenon_fetch_name(RECORD)
+     * </pre></code>
+     * with <code>RECORD</code> depending on the {@link VertexFormat.Fetch} of the input, e.g.
+     * <code>uint(gl_VertexID) >> 2</code> for {@link VertexFormat.Fetch#PER_QUAD}.
+     * so that the shader's code keeps using <code>name</code> as if it were a regular input.
+     * @param parsed the parsed inputs
+     * @param inputs the expected input formats
+     * @param appendTo the string builder
+     */
+    private static void appendPulledInputs(DataFormatElement[] parsed, DataFormatElement[] inputs,
+                                           StringBuilder appendTo) {
+        List<VertexFormat.VertexFormatElement> layout = new ArrayList<>();  // pulled bindings only hold pulled elements
+        for (DataFormatElement el : inputs)
+            if (el instanceof VertexFormat.VertexFormatElement v && v.fetch != VertexFormat.Fetch.ATTRIB)
+                layout.add(v);
+        VertexFormat pulledFormat = new VertexFormat(layout.toArray(VertexFormat.VertexFormatElement[]::new));
+        Set<Integer> bindings = new HashSet<>();
+        for (DataFormatElement el : parsed) {
+            var pulled = pulledInput(inputs, el);
+            if (pulled == null || !bindings.add(pulled.binding))
+                continue;
+            if (pulled.fetch == VertexFormat.Fetch.PER_BATCH) {   // a record and the word past its end
+                int vectors = ((pulledFormat.stride(pulled.binding) + 3 >> 2) + 4) >> 2;
+                appendTo.append(String.format("""
+                        layout (std140, binding=%1$d) uniform xenon_batch_%1$d
+                        {
+                            uvec4 xenon_data_%1$d[%2$d];
+                        };
+                        uint xenon_word_%1$d(uint w)
+                        {
+                            return xenon_data_%1$d[w >> 2][w & 3u];
+                        }
+                        uint xenon_u8_%1$d(uint a)
+                        {
+                            return (xenon_word_%1$d(a >> 2) >> ((a & 3u) << 3)) & 0xFFu;
+                        }
+                        uint xenon_u16_%1$d(uint a)
+                        {
+                            return xenon_u8_%1$d(a) | (xenon_u8_%1$d(a + 1u) << 8);
+                        }
+                        uint xenon_u32_%1$d(uint a)
+                        {
+                            uint s = (a & 3u) << 3;
+                            if (s == 0u)
+                                return xenon_word_%1$d(a >> 2);
+                            return (xenon_word_%1$d(a >> 2) >> s) | (xenon_word_%1$d((a >> 2) + 1u) << (32u - s));
+                        }
+                        """, pulled.binding, vectors));
+            } else appendTo.append(String.format("""
+                        layout (std430, binding=%1$d) readonly buffer xenon_buffer_%1$d
+                        {
+                            uint xenon_data_%1$d[];
+                        };
+                        uint xenon_u8_%1$d(uint a)
+                        {
+                            return (xenon_data_%1$d[a >> 2] >> ((a & 3u) << 3)) & 0xFFu;
+                        }
+                        uint xenon_u16_%1$d(uint a)
+                        {
+                            return xenon_u8_%1$d(a) | (xenon_u8_%1$d(a + 1u) << 8);
+                        }
+                        uint xenon_u32_%1$d(uint a)
+                        {
+                            uint s = (a & 3u) << 3;
+                            if (s == 0u)
+                                return xenon_data_%1$d[a >> 2];
+                            return (xenon_data_%1$d[a >> 2] >> s) | (xenon_data_%1$d[(a >> 2) + 1u] << (32u - s));
+                        }
+                        """, pulled.binding));
+        }
+        for (DataFormatElement el : parsed) {
+            var pulled = pulledInput(inputs, el);
+            if (pulled == null)
+                continue;
+            String fetch = "xenon_fetch_" + el.name;
+            int size = VertexFormat.sizeof(pulled.type);
+            appendTo.append(pulled.GLSLType).append(' ').append(fetch).append("(uint i)\n{\n    uint a = i * ")
+                    .append(pulledFormat.stride(pulled.binding)).append("u + ").append(pulledFormat.offset(pulled))
+                    .append("u;\n    return ")
+                    .append(pulled.GLSLType).append('(');
+            boolean packed = VertexFormat.packed(pulled.type);
+            for (int k = 0; k < pulled.count; k++) {
+                if (k != 0)
+                    appendTo.append(", ");
+                appendTo.append(pulledComponent(pulled, packed ? "a" : "a + " + k * size + 'u', k));
+            }
+            appendTo.append(");\n}\n#define ").append(el.name).append(' ').append(fetch).append('(')
+                    .append(switch (pulled.fetch) {
+                        case PER_VERTEX -> "uint(gl_VertexID)";
+                        case PER_QUAD -> "uint(gl_VertexID) >> 2";
+                        case PER_BATCH -> "0u";
+                        default -> throw new AssertionError("Not a pulled input: " + pulled.fetch);
+                    }).append(")\n");
+        }
+    }
+
+    /**
+     * @param el the pulled element
+     * @param address the GLSL expression of the component's byte address, or of the element's one for packed types
+     * @param component the index of the component
+     * @return the GLSL expression reading a single component of <code>el</code>, converted like OpenGL would for
+     * a vertex attribute
+     * @see #appendPulledInputs(DataFormatElement[], DataFormatElement[], StringBuilder)
+     */
+    private static String pulledComponent(VertexFormat.VertexFormatElement el, String address, int component) {
+        int b = el.binding;
+        int width = component == 3 ? 2 : 10, shift = 10 * component;   // packed types only
+        String u8 = "xenon_u8_" + b + '(' + address + ')';
+        String u16 = "xenon_u16_" + b + '(' + address + ')';
+        String u32 = "xenon_u32_" + b + '(' + address + ')';
+        return switch (el.type) {
+            case GL_UNSIGNED_BYTE -> el.normalized ? "float(" + u8 + ") / 255.0" : u8;
+            case GL_BYTE -> el.normalized ? "max(float(int(" + u8 + " << 24) >> 24) / 127.0, -1.0)"
+                    : "(int(" + u8 + " << 24) >> 24)";
+            case GL_UNSIGNED_SHORT -> el.normalized ? "float(" + u16 + ") / 65535.0" : u16;
+            case GL_SHORT -> el.normalized ? "max(float(int(" + u16 + " << 16) >> 16) / 32767.0, -1.0)"
+                    : "(int(" + u16 + " << 16) >> 16)";
+            case GL_UNSIGNED_INT -> u32;
+            case GL_INT -> "int(" + u32 + ')';
+            case GL_HALF_FLOAT -> "unpackHalf2x16(" + u16 + ").x";
+            case GL_FLOAT -> "uintBitsToFloat(" + u32 + ')';
+            case GL_INT_2_10_10_10_REV -> {
+                String c = "float(int(" + u32 + " << " + (32 - shift - width) + "u) >> " + (32 - width) + ')';
+                yield el.normalized ? "max(" + c + " / " + ((1 << width - 1) - 1) + ".0, -1.0)" : c;
+            }
+            case GL_UNSIGNED_INT_2_10_10_10_REV -> {
+                String c = "float((" + u32 + " >> " + shift + "u) & " + ((1 << width) - 1) + "u)";
+                yield el.normalized ? c + " / " + ((1 << width) - 1) + ".0" : c;
+            }
+            case GL_DOUBLE -> "packDouble2x32(uvec2(" + u32 + ", xenon_u32_" + b + '(' + address + " + 4u)))";
+            default -> throw new AssertionError("Cannot pull GL type " + el.type);
+        };
+    }
+
     /**
      * Parses a format header, either '#inputs' or '#outputs', and call <code>consumer</code> for each data format
      * encountered in the header
@@ -329,10 +582,10 @@ public class Circe {
      * @param defaultQualifier the default qualifier to be added at the end of the parsed qualifiers
      * @param consumer the consumer that is called for each parsed DataFormatElement
      * @throws AssertionError in case of parsing error
-     * @see #handleInputHeader(Lexer, DataFormatElement[])
-     * @see #handleOutputHeader(Lexer)
+     * @see #handleInputHeader(BufferLexer, DataFormatElement[])
+     * @see #handleOutputHeader(BufferLexer)
      */
-    private static void handleDataFormatHeader(Lexer lexer, String syntax, String defaultQualifier,
+    private static void handleDataFormatHeader(BufferLexer lexer, String syntax, String defaultQualifier,
                                                Consumer<DataFormatElement> consumer) {
         checkHeaderStart(lexer, syntax);
         boolean success = false;
@@ -361,17 +614,16 @@ public class Circe {
         String currentType = null;
         Set<String> currentQualifiers = null;
         while (lexer.hasNext()) {
-            Token t = lexer.next();
-            if ((success = t.is(">")) || t.is("\n"))
+            int t = lexer.next();
+            if ((success = lexer.isMark(t, '>')) || lexer.kind(t) == BufferLexer.NEWLINE)
                 break;
-            String s = t.content();
 
             if (expect_mark) {
-                if ( !(s.length() == 1 && !Lexer.isWordChar(s.charAt(0))) )
-                    throw new AssertionError("Expected either ':', '/' or ';'. Got '"+s+'\'');
+                if (lexer.kind(t) != BufferLexer.MARK)
+                    throw new AssertionError("Expected either ':', '/' or ';'. Got '"+lexer.content(t)+'\'');
 
                 expect_mark = false;
-                char c = s.charAt(0);
+                char c = lexer.mark(t);
 
                 if (state == State.LOC) {
                     if (in_qualifiers) {
@@ -395,8 +647,9 @@ public class Circe {
                 state = state.cycle();  // notice we cycle state here because we need the expectAfter validation
 
             } else {
-                if ( s.length() == 1 && !Lexer.isWordChar(s.charAt(0)) )
-                    throw new AssertionError("Expected "+state+". Got a mark: '"+s+'\'');
+                if (lexer.kind(t) == BufferLexer.MARK)
+                    throw new AssertionError("Expected "+state+". Got a mark: '"+lexer.mark(t)+'\'');
+                String s = lexer.content(t);
                 switch(state) {
                     case LOC -> {
                         if (in_qualifiers) {
@@ -443,20 +696,23 @@ public class Circe {
      * @param appendTo the string builder
      * @throws AssertionError in case of parsing error or if <code>LIB_NAME</code> isn't registered in {@link Polypheme}
      */
-    private static void handleLibHeader(Lexer lexer, StringBuilder appendTo) {
+    private static void handleLibHeader(BufferLexer lexer, StringBuilder appendTo) {
         checkHeaderStart(lexer, "#include <LIB_NAME>");
         var lib_name = new StringBuilder();
         boolean success = false;
         while (lexer.hasNext()) {
-            String s = lexer.next().content();
-            success = s.equals(">");
+            int t = lexer.next();
+            success = lexer.isMark(t, '>');
             if (success)
                 break;
-            lib_name.append(s);
+            lexer.appendTo(t, lib_name);
         }
         checkHeaderEnd(lexer, success, "#include <LIB_NAME>");
 
         String lib_code = Polypheme.getLib(lib_name.toString());
+        Set<String> includes = INCLUDES.get();
+        if (includes != null)
+            includes.add(lib_name.toString());
 
         appendTo.append(lib_code).append('\n');
     }
@@ -468,8 +724,8 @@ public class Circe {
      * @param syntax the correct syntax
      * @throws AssertionError if the next lexeme isn't '<'
      */
-    private static void checkHeaderStart(Lexer lexer, String syntax) {
-        if (!( lexer.hasNext() && lexer.next().is("<") ))
+    private static void checkHeaderStart(BufferLexer lexer, String syntax) {
+        if (!( lexer.hasNext() && lexer.isMark(lexer.next(), '<') ))
             throw new AssertionError("Expected '"+syntax+'\'');
     }
 
@@ -480,29 +736,238 @@ public class Circe {
      * @param syntax the correct syntax
      * @throws AssertionError if encountered_gt is false or if the next lexeme isn't '\n'
      */
-    private static void checkHeaderEnd(Lexer lexer, boolean encountered_gt, String syntax) {
-        if (!encountered_gt || (lexer.hasNext() && !lexer.next().is("\n")))
+    private static void checkHeaderEnd(BufferLexer lexer, boolean encountered_gt, String syntax) {
+        if (!encountered_gt || (lexer.hasNext() && lexer.kind(lexer.next()) != BufferLexer.NEWLINE))
             throw new AssertionError("Expected '"+syntax+"' without any anything trailing at the end");
     }
 
     /**
      * Skips all the empty lines.
-     * Calls {@link Lexer#next()} until the lexeme isn't '\n' or there aren't any lexemes left
+     * Calls {@link BufferLexer#next()} until the lexeme isn't '\n' or there aren't any lexemes left
      * @param lexer the lexer
      */
     @SuppressWarnings("StatementWithEmptyBody")
-    private static void skipEmptyLines(Lexer lexer) {
+    private static void skipEmptyLines(BufferLexer lexer) {
         boolean not_rewind = false;
-        while(lexer.hasNext() && ( not_rewind = lexer.next().is("\n") ));
+        while(lexer.hasNext() && ( not_rewind = lexer.kind(lexer.next()) == BufferLexer.NEWLINE ));
         if (!not_rewind)
             lexer.pushLast();
     }
 
 
+    /**
+     * Tokenizer for glsl syntax working in place over the bytes of the code.
+     * <p>
+     * The whole code is tokenized upfront into a single int array of <code>(offset, length, kind)</code> triples,
+     * tokens then being referred to by their index: no String nor token object is allocated, but for the few
+     * contents needed as Strings (see {@link #content(int)}). The names of the directives, i.e. the words right after
+     * a '#', are interned into their own kinds.
+     * <p>
+     * Tokens are the same as {@link Lexer}'s: words of {@link #isWordChar(char) word chars}, single-char marks, and a
+     * new line at the end of every line, comments and whitespaces being skipped. Bytes are read as ASCII.
+     */
+    public static final class BufferLexer {
+
+        public static final int WORD = 0, MARK = 1, NEWLINE = 2;
+        /**
+         * Directive kinds. {@link #PREPROCESSOR} gathers the GLSL preprocessor directives, forwarded as is.
+         */
+        public static final int VERTEX = 3, FRAGMENT = 4, INPUTS = 5, OUTPUTS = 6, INCLUDE = 7, PREPROCESSOR = 8;
+
+        private static final byte[][] DIRECTIVES;
+        private static final int[] DIRECTIVE_KINDS;
+        static {
+            String[] names = {"vertex", "fragment", "inputs", "outputs", "include", "if", "ifdef", "define", "undef",
+                    "ifndef", "else", "elif", "endif", "error", "pragma", "extension", "line"};
+            DIRECTIVES = new byte[names.length][];
+            DIRECTIVE_KINDS = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                DIRECTIVES[i] = names[i].getBytes(StandardCharsets.US_ASCII);
+                DIRECTIVE_KINDS[i] = Math.min(VERTEX + i, PREPROCESSOR);
+            }
+        }
+
+        private final ByteBuffer code;
+        private int[] tokens;
+        private int count;
+        private int cursor;
+
+        /**
+         * Tokenizes <code>code</code>, which must not be modified while the lexer is in use.
+         * @param code the code between the position and the limit, left unchanged
+         * @throws AssertionError if there is nothing but new lines to tokenize
+         */
+        public BufferLexer(ByteBuffer code) {
+            this.code = code;
+            int begin = code.position(), end = code.limit();
+            while (end > begin && code.get(end - 1) == '\n')  // trailing empty lines are dropped, as by String#split
+                end--;
+            if (end == begin)
+                throw new AssertionError("Supplied nothing to the parser");
+            tokens = new int[Math.max(16, (end - begin) / 3) * 3];  // a token every 3 bytes, about
+            tokenize(begin, end);
+        }
+
+        private void tokenize(int begin, int end) {
+            boolean directive = false;
+            for (int i = begin; i < end;) {
+                int c = code.get(i) & 0xFF;
+                if (c == '\n') {
+                    add(i++, 1, NEWLINE);
+                    directive = false;
+                } else if (isWordChar((char) c)) {
+                    int start = i;
+                    while (++i < end && isWordChar((char) (code.get(i) & 0xFF)));
+                    add(start, i - start, directive ? directiveKind(start, i - start) : WORD);
+                    directive = false;
+                } else if (c == '/' && i + 1 < end && code.get(i + 1) == '/') {
+                    while (i < end && code.get(i) != '\n')
+                        i++;
+                } else {
+                    if (!Character.isWhitespace(c)) {
+                        add(i, 1, MARK);
+                        directive = c == '#';
+                    }
+                    i++;
+                }
+            }
+            add(end, 0, NEWLINE);   // the last line ends too
+        }
+
+        private int directiveKind(int offset, int length) {
+            outer:
+            for (int d = 0; d < DIRECTIVES.length; d++) {
+                byte[] name = DIRECTIVES[d];
+                if (name.length != length)
+                    continue;
+                for (int i = 0; i < length; i++)
+                    if (code.get(offset + i) != name[i])
+                        continue outer;
+                return DIRECTIVE_KINDS[d];
+            }
+            return WORD;
+        }
+
+        private void add(int offset, int length, int kind) {
+            if (count * 3 == tokens.length)
+                tokens = Arrays.copyOf(tokens, tokens.length << 1);
+            int i = count++ * 3;
+            tokens[i] = offset;
+            tokens[i + 1] = length;
+            tokens[i + 2] = kind;
+        }
+
+        /**
+         * @return whether there are tokens left
+         */
+        public boolean hasNext() {
+            return cursor < count;
+        }
+
+        /**
+         * @return the index of the next token
+         * @throws IllegalStateException if there aren't any tokens left
+         */
+        public int next() {
+            if (cursor == count)
+                throw new IllegalStateException("Lexer doesn't have any token left.");
+            return cursor++;
+        }
+
+        /**
+         * Next {@link #next()} call should return the current token again.
+         */
+        public void pushLast() {
+            cursor--;
+        }
+
+        /**
+         * @return the number of tokens
+         */
+        public int count() {
+            return count;
+        }
+
+        /**
+         * @param token the index of a token
+         * @return its kind, {@link #WORD}, {@link #MARK}, {@link #NEWLINE} or a directive kind
+         */
+        public int kind(int token) {
+            return tokens[token * 3 + 2];
+        }
+
+        /**
+         * @param token the index of a token
+         * @return its offset in the code
+         */
+        public int offset(int token) {
+            return tokens[token * 3];
+        }
+
+        /**
+         * @param token the index of a token
+         * @return its length in bytes, 0 for the new line ending the code
+         */
+        public int length(int token) {
+            return tokens[token * 3 + 1];
+        }
+
+        /**
+         * @param token the index of a {@link #MARK} token
+         * @return the mark
+         */
+        public char mark(int token) {
+            return (char) (code.get(tokens[token * 3]) & 0xFF);
+        }
+
+        /**
+         * @param token the index of a token
+         * @param c the mark to test
+         * @return whether the token is the mark <code>c</code>
+         */
+        public boolean isMark(int token, char c) {
+            return kind(token) == MARK && mark(token) == c;
+        }
+
+        /**
+         * Appends a token without any intermediate String.
+         * @param token the index of a token
+         * @param sb the string builder
+         * @return <code>sb</code>
+         */
+        public StringBuilder appendTo(int token, StringBuilder sb) {
+            int kind = tokens[token * 3 + 2];
+            if (kind == NEWLINE)
+                return sb.append('\n');
+            for (int i = tokens[token * 3], end = i + tokens[token * 3 + 1]; i < end; i++)
+                sb.append((char) (code.get(i) & 0xFF));
+            return sb;
+        }
+
+        /**
+         * @param token the index of a token
+         * @return the content of the token as a new String
+         */
+        public String content(int token) {
+            return appendTo(token, new StringBuilder(length(token))).toString();
+        }
+
+        /**
+         * Checks whether <code>c</code> is a word char in GLSL (i.e [a-zA-Z0-9_.]).
+         * @param c the character to check
+         * @return whether c is a letter or an underscore or a dot
+         */
+        public static boolean isWordChar(char c) {
+            return c == '_' || c == '.' || ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z') || ('0' <= c && c <= '9');
+        }
+    }
+
     /**
      * Classic tokenizer for glsl syntax.
      * @author Zenon
+     * @deprecated allocates a String and a {@link Token} per token, use {@link BufferLexer}
      */
+    @Deprecated
     public static class Lexer implements Iterator<Token> {
 
         private final Iterator<String> lineSupplier;
@@ -521,12 +986,10 @@ public class Circe {
          *
          * @param shader the path to the shader
          * @return a new Lexer instance
-         * @throws IOException if <code>Files.lines</code> fails
+         * @throws IOException if <code>Files.readAllLines</code> fails
          */
         public static Lexer io(Path shader) throws IOException {
-            try(Stream<String> lines = Files.lines(shader)) {
-                return new Lexer(lines.iterator());
-            }
+            return new Lexer(Files.readAllLines(shader).iterator());   // the lines outlive the file
         }
         /**
          *
@@ -616,7 +1079,7 @@ public class Circe {
          * @return whether c is a letter or an underscore or a dot
          */
         public static boolean isWordChar(char c) {
-            return c == '_' || c == '.' || ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z') || ('0' <= c && c <= '9');
+            return BufferLexer.isWordChar(c);
         }
 
         /**
@@ -646,7 +1109,9 @@ public class Circe {
     /**
      * Simple token record for {@link Lexer}.
      * @param content the content of the token, be it a mark, a type or a name
+     * @deprecated see {@link Lexer}
      */
+    @Deprecated
     public record Token(String content) {
         /**
          * @param s the content to test
@@ -0,0 +1,230 @@
+package com.xenon.opengl.debug;
+
+import com.xenon.opengl.VertexFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Memoizes {@link Circe#parseVertexAndFragment(String, VertexFormat)} and
+ * {@link Circe#parseVertexAndFragmentSeparated(String, String, VertexFormat)}.
+ * <p>
+ * Entries are content-addressed: keyed by a SHA-256 of the source code, of the signature of every element of the
+ * {@link VertexFormat}, and of the file format and the version of Circe's code generation. Each entry also records the content hash of every {@link Polypheme} library its shaders
+ * include, checked on every hit, so that changing a library (see {@link Polypheme#replaceLib(String, String)})
+ * invalidates exactly the entries including it.
+ * <p>
+ * The in-memory tier keeps the most recently used entries. The optional on-disk tier keeps one file per entry,
+ * read through a memory mapping and written atomically, so that several processes may share it.
+ * Thread-safe.
+ */
+public class CirceCache {
+
+    private static final int MAGIC = 0x43495243;   // CIRC
+    private static final String SUFFIX = ".circe";
+    /*
+    * Prefix of every key, so that entries of another file format or code generation are never looked up
+    * */
+    private static final String GENERATOR = Integer.toHexString(MAGIC) + ':' + Circe.VERSION;
+
+    /**
+     * @param parts strings to hash, separated by a NUL character
+     * @return the SHA-256 hex digest
+     */
+    static String digest(String... parts) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                sha.update(part.getBytes(StandardCharsets.UTF_8));
+                sha.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(sha.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-256 is always available", e);
+        }
+    }
+
+    /**
+     * @param format a vertex format
+     * @return everything about <code>format</code> the generated code depends on
+     */
+    private static String signature(VertexFormat format) {
+        var sb = new StringBuilder();
+        for (var el : format.elements())
+            sb.append(el.location).append(',').append(el.binding).append(',').append(el.count).append(',')
+                    .append(el.type).append(',').append(el.normalized).append(',').append(el.fetch).append(',')
+                    .append(el.name).append(',').append(el.GLSLType).append(',')
+                    .append(String.join(" ", el.qualifiers)).append(';');
+        return sb.toString();
+    }
+
+    /*
+    * Preprocessed code and the hash of every library it includes, by domain
+    * */
+    private record Entry(String vertex, String fragment, Map<String, String> libraries) {
+
+        boolean valid() {
+            for (var lib : libraries.entrySet())
+                if (!lib.getValue().equals(Polypheme.hash(lib.getKey())))
+                    return false;
+            return true;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> memory;
+    private final Path directory;
+    private int hits, misses;
+
+    /**
+     * @param maxEntries the maximum number of entries kept in memory
+     */
+    public CirceCache(int maxEntries) {
+        this(maxEntries, null);
+    }
+
+    /**
+     * @param maxEntries the maximum number of entries kept in memory
+     * @param directory the directory of the on-disk tier, created if needed, or null for none
+     */
+    public CirceCache(int maxEntries, Path directory) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("A cache needs at least one entry. Got " + maxEntries);
+        memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.directory = directory;
+    }
+
+    /**
+     * @see Circe#parseVertexAndFragment(String, VertexFormat)
+     */
+    public AbstractMap.SimpleEntry<String, String> parseVertexAndFragment(String code, VertexFormat format) {
+        return lookup(digest(GENERATOR, "joined", code, signature(format)),
+                () -> Circe.parseVertexAndFragment(code, format));
+    }
+
+    /**
+     * @see Circe#parseVertexAndFragmentSeparated(String, String, VertexFormat)
+     */
+    public AbstractMap.SimpleEntry<String, String> parseVertexAndFragmentSeparated(String vertexCode,
+                                                                                   String fragmentCode,
+                                                                                   VertexFormat format) {
+        return lookup(digest(GENERATOR, "separated", vertexCode, fragmentCode, signature(format)),
+                () -> Circe.parseVertexAndFragmentSeparated(vertexCode, fragmentCode, format));
+    }
+
+    private synchronized AbstractMap.SimpleEntry<String, String> lookup(
+            String key, Supplier<AbstractMap.SimpleEntry<String, String>> parser) {
+        Entry e = memory.get(key);
+        if (e == null || !e.valid()) {
+            e = directory == null ? null : read(key);
+            if (e == null || !e.valid()) {
+                misses++;
+                Set<String> included = new HashSet<>();
+                var parsed = Circe.recordIncludes(included, parser);
+                Map<String, String> libraries = new TreeMap<>();
+                for (String domain : included)
+                    libraries.put(domain, Polypheme.hash(domain));
+                e = new Entry(parsed.getKey(), parsed.getValue(), libraries);
+                if (directory != null)
+                    write(key, e);
+            } else hits++;
+            memory.put(key, e);
+        } else hits++;
+        return new AbstractMap.SimpleEntry<>(e.vertex, e.fragment);
+    }
+
+    /*
+    * Maps the file of an entry, null if missing or unreadable
+    * */
+    private Entry read(String key) {
+        try (FileChannel channel = FileChannel.open(directory.resolve(key + SUFFIX))) {
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (data.getInt() != MAGIC)
+                return null;
+            int libraries = data.getInt();
+            Map<String, String> hashes = new TreeMap<>();
+            for (int i = 0; i < libraries; i++)
+                hashes.put(string(data), string(data));
+            return new Entry(string(data), string(data), hashes);
+        } catch (IOException | RuntimeException e) {   // missing, or truncated by a crash
+            return null;
+        }
+    }
+
+    private static String string(ByteBuffer data) {
+        byte[] bytes = new byte[data.getInt()];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /*
+    * Writes the file of an entry through a temporary file, failures only printing a warning
+    * */
+    private void write(String key, Entry e) {
+        List<byte[]> strings = new ArrayList<>();
+        for (var lib : e.libraries.entrySet()) {
+            strings.add(lib.getKey().getBytes(StandardCharsets.UTF_8));
+            strings.add(lib.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+        strings.add(e.vertex.getBytes(StandardCharsets.UTF_8));
+        strings.add(e.fragment.getBytes(StandardCharsets.UTF_8));
+        int size = 8;
+        for (byte[] s : strings)
+            size += 4 + s.length;
+        ByteBuffer data = ByteBuffer.allocate(size).putInt(MAGIC).putInt(e.libraries.size());
+        for (byte[] s : strings)
+            data.putInt(s.length).put(s);
+
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            try {
+                Files.write(temp, data.array());
+                Files.move(temp, directory.resolve(key + SUFFIX), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException ex) {
+            System.err.println("Warning caching preprocessed shader " + key + ": " + ex);
+        }
+    }
+
+    /**
+     * @return the number of lookups served by either tier since the last {@link #resetCounters()}
+     */
+    public synchronized int hits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that had to preprocess since the last {@link #resetCounters()}
+     */
+    public synchronized int misses() {
+        return misses;
+    }
+
+    public synchronized void resetCounters() {
+        hits = misses = 0;
+    }
+
+    /**
+     * Empties the in-memory tier.
+     */
+    public synchronized void clear() {
+        memory.clear();
+    }
+}
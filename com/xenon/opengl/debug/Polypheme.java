@@ -15,6 +15,10 @@ public class Polypheme {
      * The libraries accessed by their domains (#include <DOMAIN> in vertex shader code).
      */
     private static Map<String, String> codeByDomain = new HashMap<>();
+    /**
+     * Content hashes of the libraries, computed lazily, see {@link CirceCache}.
+     */
+    private static Map<String, String> hashByDomain = new HashMap<>();
 
     /**
      * Registers a library with the given domain, free of any blank space.
@@ -29,6 +33,29 @@ public class Polypheme {
         codeByDomain.put(domain, code);
     }
 
+    /**
+     * Replaces the library registered with the given domain, or registers it. Shaders cached by a
+     * {@link CirceCache} that include it are preprocessed again on their next lookup.
+     * @param domain the domain used to access the library
+     * @param code the library's new code
+     */
+    public static void replaceLib(String domain, String code) {
+        domain = domain.replaceAll("\\s", "");
+        codeByDomain.put(domain, code);
+        hashByDomain.remove(domain);
+    }
+
+    /**
+     * @param domain the library's domain
+     * @return the SHA-256 of the library's code, null if no library with such domain exists
+     */
+    static String hash(String domain) {
+        String code = codeByDomain.get(domain);
+        if (code == null)
+            return null;
+        return hashByDomain.computeIfAbsent(domain, d -> CirceCache.digest(code));
+    }
+
     /**
      *
      * @param domain the library's domain
@@ -48,5 +75,6 @@ public class Polypheme {
      */
     public static void dispose() {
         codeByDomain = null;
+        hashByDomain = null;
     }
 }
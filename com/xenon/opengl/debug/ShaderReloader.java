@@ -0,0 +1,272 @@
+package com.xenon.opengl.debug;
+
+import com.xenon.glfw.ShaderProgram;
+import com.xenon.glfw.abstraction.Disposable;
+import com.xenon.opengl.VertexFormat;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Hot reloads the programs preprocessed by {@link Circe} while the application runs.
+ * <p>
+ * Each watched program is a slot: the shader file it is preprocessed from, its vertex format, and the function
+ * installing a new program, typically {@link com.xenon.opengl.abstraction.WorldRenderer#build(ShaderProgram)}.
+ * The reloader keeps the dependency graph from the shader files and the {@link Polypheme} libraries to the slots
+ * built out of them, the libraries being the ones recorded while preprocessing, so that a change only rebuilds the
+ * dependent slots.
+ * <p>
+ * Shader files are watched by a {@link WatchService}. Libraries are either replaced in code with
+ * {@link Polypheme#replaceLib(String, String)}, or loaded from a watched file, see
+ * {@link #watchLibrary(Path, String)}.
+ * <p>
+ * Rebuilt programs are compiled asynchronously (see {@link ShaderProgram#buildAsync(String, String)}) and only
+ * installed once linked, by {@link #update()}, on the render thread between two frames. A program that fails to
+ * preprocess, compile or link is reported and the slot keeps its previous program.
+ */
+public class ShaderReloader implements Disposable {
+
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    /*
+    * The dependency graph: slots by shader file and by included library, and the libraries loaded from files
+    * */
+    private final Map<Path, List<Slot>> byFile = new HashMap<>();
+    private final Map<String, Set<Slot>> byLibrary = new HashMap<>();
+    private final Map<Path, String> libraryFiles = new HashMap<>();
+    /*
+    * Hash of every library the last time the slots depending on it were rebuilt
+    * */
+    private final Map<String, String> libraryHashes = new HashMap<>();
+    private final List<Slot> building = new ArrayList<>();
+
+    /**
+     * @throws IOException if the file system doesn't support watching
+     */
+    public ShaderReloader() throws IOException {
+        watcher = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Watches a program.
+     * @param file the shader file, as given to {@link Circe#parseVertexAndFragment(String, VertexFormat)}
+     * @param format the vertex format
+     * @param variant transforms the code of <code>file</code> before preprocessing, e.g.
+     *                {@link Circe#weightedBlendedVariant(String)}, null for none
+     * @param current the program currently installed, disposed of once replaced. May be null
+     * @param install installs a new program in the slot
+     * @throws IOException if <code>file</code> can't be read or its directory can't be watched
+     * @throws AssertionError if <code>file</code> fails to preprocess
+     */
+    public void watch(Path file, VertexFormat format, UnaryOperator<String> variant, ShaderProgram current,
+                      Consumer<ShaderProgram> install) throws IOException {
+        file = file.toAbsolutePath().normalize();
+        Slot slot = new Slot(file, format, variant == null ? UnaryOperator.identity() : variant, install);
+        slot.current = current;
+        preprocess(slot);
+        slot.link();
+        register(file);
+        byFile.computeIfAbsent(file, f -> new ArrayList<>()).add(slot);
+    }
+
+    /**
+     * Stops watching the slots whose installed program is <code>program</code>, e.g. before disposing of its
+     * renderer. The program is left to its owner, a rebuild in progress is disposed of.
+     * @param program the installed program, as given to
+     * {@link #watch(Path, VertexFormat, UnaryOperator, ShaderProgram, Consumer)} or installed since
+     */
+    public void unwatch(ShaderProgram program) {
+        Objects.requireNonNull(program);
+        for (List<Slot> slots : byFile.values())
+            slots.removeIf(slot -> {
+                if (slot.current != program)
+                    return false;
+                for (String domain : slot.includes)
+                    byLibrary.get(domain).remove(slot);
+                if (slot.pending != null) {
+                    slot.pending.dispose();
+                    building.remove(slot);
+                }
+                return true;
+            });
+    }
+
+    /**
+     * Loads a library from a file, registering or replacing it in {@link Polypheme} now and every time the file
+     * changes.
+     * @param file the library file
+     * @param domain the domain of the library
+     * @throws IOException if <code>file</code> can't be read or its directory can't be watched
+     */
+    public void watchLibrary(Path file, String domain) throws IOException {
+        file = file.toAbsolutePath().normalize();
+        Polypheme.replaceLib(domain, Files.readString(file));
+        register(file);
+        libraryFiles.put(file, domain.replaceAll("\\s", ""));
+    }
+
+    private void register(Path file) throws IOException {
+        Path directory = file.getParent();
+        if (!directories.containsValue(directory))
+            directories.put(directory.register(watcher, ENTRY_CREATE, ENTRY_MODIFY), directory);
+    }
+
+    /**
+     * Rebuilds the slots depending on the files and libraries changed since the last call, then installs the
+     * rebuilt programs that are linked. Must be called on the render thread, outside of any frame's drawing,
+     * typically once per frame. Never blocks on the compilation.
+     */
+    public void update() {
+        Set<Slot> dirty = new LinkedHashSet<>();
+        for (WatchKey key; (key = watcher.poll()) != null;) {
+            Path directory = directories.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {    // lost track of the changes, rebuild the whole directory
+                    for (var e : byFile.entrySet())
+                        if (e.getKey().getParent().equals(directory))
+                            dirty.addAll(e.getValue());
+                    for (var e : libraryFiles.entrySet())
+                        if (e.getKey().getParent().equals(directory))
+                            reloadLibrary(e.getKey(), e.getValue());
+                    continue;
+                }
+                Path file = directory.resolve((Path) event.context());
+                List<Slot> slots = byFile.get(file);
+                if (slots != null)
+                    dirty.addAll(slots);
+                String domain = libraryFiles.get(file);
+                if (domain != null)
+                    reloadLibrary(file, domain);
+            }
+            key.reset();
+        }
+        for (var e : byLibrary.entrySet())
+            if (!Objects.equals(Polypheme.hash(e.getKey()), libraryHashes.get(e.getKey()))) {
+                libraryHashes.put(e.getKey(), Polypheme.hash(e.getKey()));
+                dirty.addAll(e.getValue());
+            }
+
+        for (Slot slot : dirty)
+            rebuild(slot);
+        building.removeIf(this::install);
+    }
+
+    private static void reloadLibrary(Path file, String domain) {
+        try {
+            Polypheme.replaceLib(domain, Files.readString(file));
+        } catch (IOException e) {
+            System.err.println("Warning reloading library " + domain + ": " + e);
+        }
+    }
+
+    /*
+    * Preprocesses a slot, returning the code and recording the included libraries into the slot
+    * */
+    private AbstractMap.SimpleEntry<String, String> preprocess(Slot slot) throws IOException {
+        String code = slot.variant.apply(Files.readString(slot.file));
+        slot.includes = new HashSet<>();
+        return Circe.recordIncludes(slot.includes, () -> Circe.parseVertexAndFragment(code, slot.format));
+    }
+
+    private void rebuild(Slot slot) {
+        Set<String> previous = slot.includes;
+        AbstractMap.SimpleEntry<String, String> code;
+        try {
+            code = preprocess(slot);
+        } catch (IOException | AssertionError e) {    // e.g. read mid-write, the next event rebuilds again
+            slot.includes = previous;
+            System.err.println("Warning preprocessing " + slot.file + ", keeping the previous program: " + e);
+            return;
+        }
+        for (String domain : previous)
+            byLibrary.get(domain).remove(slot);
+        slot.link();
+        if (slot.pending != null)
+            slot.pending.dispose();
+        else building.add(slot);
+        slot.pending = ShaderProgram.buildAsync(code);
+    }
+
+    /*
+    * Installs the program of a slot once linked, returning whether the slot is done building
+    * */
+    private boolean install(Slot slot) {
+        try {
+            if (!slot.pending.ready())
+                return false;
+        } catch (RuntimeException e) {
+            System.err.println("Warning compiling " + slot.file + ", keeping the previous program: "
+                    + e.getMessage());
+            slot.pending.dispose();
+            slot.pending = null;
+            return true;
+        }
+        slot.install.accept(slot.pending);
+        if (slot.current != null)
+            slot.current.dispose();
+        slot.current = slot.pending;
+        slot.pending = null;
+        return true;
+    }
+
+    /**
+     * @return the number of watched programs
+     */
+    public int size() {
+        int size = 0;
+        for (List<Slot> slots : byFile.values())
+            size += slots.size();
+        return size;
+    }
+
+    /**
+     * Stops watching. Programs still being rebuilt are disposed of, installed ones are owned by their slot.
+     */
+    @Override
+    public void dispose() {
+        for (Slot slot : building)
+            slot.pending.dispose();
+        building.clear();
+        byFile.clear();
+        byLibrary.clear();
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /*
+    * A watched program, its libraries as of its last preprocessing, and the program being rebuilt if any
+    * */
+    private final class Slot {
+        final Path file;
+        final VertexFormat format;
+        final UnaryOperator<String> variant;
+        final Consumer<ShaderProgram> install;
+        Set<String> includes = Set.of();
+        ShaderProgram current, pending;
+
+        Slot(Path file, VertexFormat format, UnaryOperator<String> variant, Consumer<ShaderProgram> install) {
+            this.file = file;
+            this.format = format;
+            this.variant = variant;
+            this.install = install;
+        }
+
+        /*
+        * Adds the edges from the libraries included by the last preprocessing
+        * */
+        void link() {
+            for (String domain : includes) {
+                byLibrary.computeIfAbsent(domain, d -> new HashSet<>()).add(this);
+                libraryHashes.putIfAbsent(domain, Polypheme.hash(domain));
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.xenon.test;
+
+import com.xenon.glfw.GLFWContext;
+import com.xenon.glfw.ShaderProgram;
+import com.xenon.glfw.Window;
+import com.xenon.glfw.abstraction.App;
+import com.xenon.opengl.VertexFormat;
+import com.xenon.opengl.abstraction.Renderers;
+import com.xenon.opengl.abstraction.WorldRenderer;
+import com.xenon.opengl.debug.Circe;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.lwjgl.opengl.GL46.*;
+
+/**
+ * Compares one indirect command per quad (per-quad data read as an instanced attribute) against a single ranged
+ * draw (per-quad data pulled from a shader storage buffer), at 10k, 100k and 1M quads.
+ * Quads are degenerate (zero area) so that the command processing dominates rasterization.
+ * CPU time covers the submission only, GPU time is measured with <code>GL_TIME_ELAPSED</code> queries.
+ */
+public class DrawCommandBenchmark implements App {
+
+    public static void main(String[] a) {
+        new DrawCommandBenchmark().run();
+    }
+
+    static final int WIDTH = 800, HEIGHT = 500;
+    static final int[] QUADS = {10_000, 100_000, 1_000_000};
+    static final int WARMUP = 20, ITERATIONS = 100;
+
+    Window window;
+    int query;
+
+    @Override
+    public void init() {
+        GLFWContext.build(4, 6, true);
+        window = Window.build("", WIDTH, HEIGHT);
+        Renderers.init(WIDTH, HEIGHT, 1, 1, 1);    // registers the UI libraries
+        query = glGenQueries();
+    }
+
+    @Override
+    public void loop() {
+        for (int quads : QUADS) {
+            var mdi = new Bench(quads, VertexFormat.Fetch.ATTRIB);
+            var ranged = new Bench(quads, VertexFormat.Fetch.PER_QUAD);
+            run("MDI", mdi, quads);
+            run("ranged", ranged, quads);
+            mdi.dispose();
+            ranged.dispose();
+        }
+    }
+
+    private void run(String name, WorldRenderer w, int quads) {
+        for (int i = 0; i < WARMUP; i++) {
+            emit(w, quads);
+            w.GPU();
+        }
+        glFinish();
+        long cpu = 0, gpu = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            emit(w, quads);
+            glBeginQuery(GL_TIME_ELAPSED, query);
+            long t0 = System.nanoTime();
+            w.GPU();
+            cpu += System.nanoTime() - t0;
+            glEndQuery(GL_TIME_ELAPSED);
+            gpu += glGetQueryObjecti64(query, GL_QUERY_RESULT);
+        }
+        System.out.printf("%-8s %9d quads  cpu %9.3f ms  gpu %9.3f ms%n", name, quads,
+                cpu / (ITERATIONS * 1e6), gpu / (ITERATIONS * 1e6));
+    }
+
+    private static void emit(WorldRenderer w, int quads) {
+        for (int i = 0; i < quads; i++)
+            w.quad(0, 0, 0, 0, 0xFFFFFFFF);
+    }
+
+    @Override
+    public void dispose() {
+        glDeleteQueries(query);
+        Renderers.dispose();
+        window.dispose();
+        GLFWContext.current().dispose();
+    }
+
+    /**
+     * {@link Renderers.POS2_COL_Renderer}'s layout, with the z-level fetched as specified.
+     */
+    static class Bench extends Renderers.Depth2DRenderer {
+
+        Bench(int quadCapacity, VertexFormat.Fetch zlevelFetch) {
+            super(quadCapacity, DEFAULT_RING_SEGMENTS, VertexFormat.of(
+                    new VertexFormat.VertexFormatElement(0, VBO_BDG, 2, GL_FLOAT, false),
+                    new VertexFormat.VertexFormatElement(1, VBO_BDG, 4, GL_UNSIGNED_BYTE, true),
+                    new VertexFormat.VertexFormatElement(2, INST_VBO_BDG, 1, GL_UNSIGNED_BYTE, true, zlevelFetch)
+            ));
+            try {
+                build(ShaderProgram.build(Circe.parseVertexAndFragment(
+                        Files.readString(Paths.get("./assets/shaders/ui_col.glsl")), format)));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * @throws UnsupportedOperationException always
+         */
+        @Override
+        public WorldRenderer tex(double u, double v) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
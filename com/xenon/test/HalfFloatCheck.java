@@ -0,0 +1,88 @@
+package com.xenon.test;
+
+import com.xenon.utils.MathsTools;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Checks {@link MathsTools#floatToHalf(float)} against <code>Float.floatToFloat16</code> over every float bit
+ * pattern, or every <code>n</code>th one if a step is given as argument. Before Java 20, the reference is instead
+ * computed in double precision with {@link Math#rint(double)}, which rounds ties to even as well.
+ * NaNs only have to stay NaNs of the same sign.
+ * {@link MathsTools#halfToFloat(short)} is checked over every half, as well as the round trip of non-NaN halves.
+ */
+public class HalfFloatCheck {
+
+    public static void main(String[] a) throws Throwable {
+        long step = a.length == 0 ? 1 : Long.parseLong(a[0]);
+        MethodHandle floatToFloat16 = null;
+        try {
+            floatToFloat16 = MethodHandles.publicLookup().findStatic(Float.class, "floatToFloat16",
+                    MethodType.methodType(short.class, float.class));
+        } catch (NoSuchMethodException e) {
+            System.out.println("Float.floatToFloat16 unavailable, using the double precision reference");
+        }
+
+        long checked = 0, failures = 0;
+        for (long bits = 0; bits <= 0xFFFFFFFFL; bits += step, checked++) {
+            float f = Float.intBitsToFloat((int) bits);
+            short expected = floatToFloat16 == null ? reference(f) : (short) floatToFloat16.invokeExact(f);
+            short actual = MathsTools.floatToHalf(f);
+            if (Float.isNaN(f) ? !nan(actual) || (actual ^ expected) < 0 : actual != expected) {
+                if (failures++ < 16)
+                    System.out.printf("floatToHalf(%s) [0x%08x] = 0x%04x, expected 0x%04x%n",
+                            f, bits, actual & 0xFFFF, expected & 0xFFFF);
+            }
+        }
+        System.out.println("floatToHalf: " + checked + " floats checked, " + failures + " failures");
+
+        failures = 0;
+        for (int h = 0; h <= 0xFFFF; h++) {
+            float f = MathsTools.halfToFloat((short) h);
+            float expected = decode(h);
+            boolean ok = nan((short) h) ? Float.isNaN(f)
+                    : Float.floatToRawIntBits(f) == Float.floatToRawIntBits(expected)
+                    && MathsTools.floatToHalf(f) == (short) h;
+            if (!ok && failures++ < 16)
+                System.out.printf("halfToFloat(0x%04x) = %s, expected %s%n", h, f, expected);
+        }
+        System.out.println("halfToFloat: 65536 halves checked, " + failures + " failures");
+    }
+
+    private static boolean nan(short h) {
+        return (h & 0x7C00) == 0x7C00 && (h & 0x3FF) != 0;
+    }
+
+    /*
+    * Rounds |f| to a multiple of the half ulp of its binade, ties to even, then encodes the result
+    * */
+    private static short reference(float f) {
+        int sign = Float.floatToRawIntBits(f) >>> 16 & 0x8000;
+        double abs = Math.abs((double) f);
+        if (Double.isNaN(abs))
+            return (short) (sign | 0x7E00);
+        if (abs >= 65520)
+            return (short) (sign | 0x7C00);
+        double ulp = Math.scalb(1.0, Math.max(Math.getExponent(abs), -14) - 10);
+        double rounded = Math.rint(abs / ulp) * ulp;
+        if (rounded < 0x1p-14)
+            return (short) (sign | (int) (rounded * 0x1p24));
+        int exp = Math.getExponent(rounded);
+        return (short) (sign | exp + 15 << 10 | (int) Math.scalb(rounded, 10 - exp) - 1024);
+    }
+
+    /*
+    * Decodes a half float from its definition
+    * */
+    private static float decode(int h) {
+        double sign = (h & 0x8000) == 0 ? 1 : -1;
+        int exp = h >>> 10 & 0x1F, mantissa = h & 0x3FF;
+        if (exp == 0x1F)
+            return (float) (sign * Double.POSITIVE_INFINITY);
+        if (exp == 0)
+            return (float) (sign * Math.scalb((double) mantissa, -24));
+        return (float) (sign * Math.scalb(1 + mantissa / 1024.0, exp - 15));
+    }
+}
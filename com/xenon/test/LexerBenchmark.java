@@ -0,0 +1,90 @@
+package com.xenon.test;
+
+import com.xenon.opengl.debug.Circe;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.IntSupplier;
+import java.util.stream.Stream;
+
+/**
+ * Compares the line-based {@link Circe.Lexer} against {@link Circe.BufferLexer} on a large shader library, made of
+ * the shaders of <code>./assets/shaders</code> repeated up to {@link #LIBRARY_BYTES}. Both walk every token, the
+ * former from the code as a String, the latter from a direct buffer as read from a file.
+ * Reports the time and the bytes allocated per pass.
+ */
+@SuppressWarnings("deprecation")
+public class LexerBenchmark {
+
+    public static void main(String[] a) throws IOException {
+        new LexerBenchmark().run();
+    }
+
+    static final int LIBRARY_BYTES = 1 << 20, WARMUP = 50, ITERATIONS = 200;
+
+    final String code;
+    final ByteBuffer buffer;
+
+    LexerBenchmark() throws IOException {
+        var sb = new StringBuilder(LIBRARY_BYTES);
+        List<Path> shaders;
+        try (Stream<Path> files = Files.list(Paths.get("./assets/shaders"))) {
+            shaders = files.sorted().toList();
+        }
+        while (sb.length() < LIBRARY_BYTES)
+            for (Path shader : shaders)
+                sb.append(Files.readString(shader)).append('\n');
+        code = sb.toString();
+        byte[] bytes = code.getBytes(StandardCharsets.UTF_8);
+        buffer = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+    }
+
+    void run() {
+        for (int i = 0; i < 2; i++) {
+            bench("Lexer", this::lines);
+            bench("BufferLexer", this::buffer);
+        }
+    }
+
+    private void bench(String name, IntSupplier pass) {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        int tokens = 0;
+        for (int i = 0; i < WARMUP; i++)
+            tokens += pass.getAsInt();
+        long allocated = threads.getThreadAllocatedBytes(tid);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            tokens += pass.getAsInt();
+        long total = System.nanoTime() - t0;
+        allocated = threads.getThreadAllocatedBytes(tid) - allocated;
+        double msPerPass = total / 1e6 / ITERATIONS;
+        System.out.printf("%-12s %8.3f ms/pass %8.1f MB/s %10.1f KB allocated/pass (%d)%n", name, msPerPass,
+                code.length() / 1e3 / msPerPass, allocated / 1e3 / ITERATIONS, tokens);
+    }
+
+    private int lines() {
+        String[] lines = code.split("\n");
+        var lexer = Circe.Lexer.of(lines, 0, lines.length);
+        int words = 0;
+        while (lexer.hasNext())
+            if (lexer.next().content().length() > 1)
+                words++;
+        return words;
+    }
+
+    private int buffer() {
+        var lexer = new Circe.BufferLexer(buffer);
+        int words = 0;
+        while (lexer.hasNext())
+            if (lexer.length(lexer.next()) > 1)
+                words++;
+        return words;
+    }
+}
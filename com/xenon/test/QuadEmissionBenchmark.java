@@ -0,0 +1,103 @@
+package com.xenon.test;
+
+import com.xenon.glfw.GLFWContext;
+import com.xenon.glfw.Window;
+import com.xenon.glfw.abstraction.App;
+import com.xenon.opengl.abstraction.Renderers;
+import com.xenon.opengl.abstraction.WorldRenderer;
+
+import java.util.Random;
+
+import static org.lwjgl.opengl.GL11.glFinish;
+
+/**
+ * Compares the legacy per-vertex path (<code>pos().color().endVertex()</code>, 4 times per quad) against
+ * {@link WorldRenderer#quad(float, float, float, float, int)} on {@link Renderers#POS2_COL}.
+ * Only the emission is timed, draws happen outside the measured section.
+ */
+public class QuadEmissionBenchmark implements App {
+
+    public static void main(String[] a) {
+        new QuadEmissionBenchmark().run();
+    }
+
+    static final int WIDTH = 800, HEIGHT = 500;
+    static final int QUADS = 16384, WARMUP = 200, ITERATIONS = 1000;
+
+    Window window;
+    final float[] rects = new float[QUADS * 4];
+    final int[] colors = new int[QUADS];
+
+    @Override
+    public void init() {
+        GLFWContext.build(4, 6, true);
+        window = Window.build("", WIDTH, HEIGHT);
+        Renderers.init(WIDTH, HEIGHT, QUADS, 4, 4);
+
+        Random r = new Random(42);
+        for (int i = 0; i < QUADS; i++) {
+            float x = r.nextFloat() * WIDTH, y = r.nextFloat() * HEIGHT;
+            rects[i * 4] = x;
+            rects[i * 4 + 1] = y;
+            rects[i * 4 + 2] = x + r.nextFloat() * 50;
+            rects[i * 4 + 3] = y + r.nextFloat() * 50;
+            colors[i] = 0xFF000000 | r.nextInt(0xFFFFFF);
+        }
+    }
+
+    @Override
+    public void loop() {
+        WorldRenderer w = Renderers.POS2_COL;
+        bench("per-vertex", w, this::perVertex);
+        bench("quad()", w, this::bulk);
+        bench("per-vertex", w, this::perVertex);
+        bench("quad()", w, this::bulk);
+    }
+
+    private void bench(String name, WorldRenderer w, Runnable emit) {
+        for (int i = 0; i < WARMUP; i++) {
+            emit.run();
+            w.GPU();
+        }
+        glFinish();
+        long total = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long t0 = System.nanoTime();
+            emit.run();
+            total += System.nanoTime() - t0;
+            w.GPU();
+        }
+        glFinish();
+        double nsPerQuad = (double) total / ((long) ITERATIONS * QUADS);
+        System.out.printf("%-12s %8.2f ns/quad %10.2f Mquads/s%n", name, nsPerQuad, 1e3 / nsPerQuad);
+    }
+
+    private void perVertex() {
+        WorldRenderer w = Renderers.POS2_COL;
+        for (int i = 0; i < QUADS; i++) {
+            double x1 = rects[i * 4], y1 = rects[i * 4 + 1], x2 = rects[i * 4 + 2], y2 = rects[i * 4 + 3];
+            int color = colors[i];
+            int r = color >> 16 & 255;
+            int g = color >> 8 & 255;
+            int b = color & 255;
+            int a = color >> 24 & 255;
+            w.pos(x1, y1).color(r, g, b, a).endVertex();
+            w.pos(x1, y2).color(r, g, b, a).endVertex();
+            w.pos(x2, y2).color(r, g, b, a).endVertex();
+            w.pos(x2, y1).color(r, g, b, a).endVertex();
+        }
+    }
+
+    private void bulk() {
+        WorldRenderer w = Renderers.POS2_COL;
+        for (int i = 0; i < QUADS; i++)
+            w.quad(rects[i * 4], rects[i * 4 + 1], rects[i * 4 + 2], rects[i * 4 + 3], colors[i]);
+    }
+
+    @Override
+    public void dispose() {
+        Renderers.dispose();
+        window.dispose();
+        GLFWContext.current().dispose();
+    }
+}
@@ -0,0 +1,115 @@
+package com.xenon.test;
+
+import com.xenon.glfw.GLFWContext;
+import com.xenon.glfw.ShaderProgram;
+import com.xenon.glfw.Window;
+import com.xenon.glfw.abstraction.App;
+import com.xenon.opengl.abstraction.AbstractQuadRenderer;
+import com.xenon.opengl.abstraction.BufferStreamingStrategies;
+import com.xenon.opengl.abstraction.BufferStreamingStrategy;
+import com.xenon.opengl.abstraction.Renderers;
+import com.xenon.opengl.abstraction.WorldRenderer;
+import com.xenon.opengl.debug.Circe;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.lwjgl.glfw.GLFW.glfwSwapInterval;
+import static org.lwjgl.opengl.GL11.glFinish;
+
+/**
+ * Renders the same scene of {@link #QUADS} colored quads per frame with every {@link BufferStreamingStrategy},
+ * and reports the average frame time as well as the resulting upload rate. V-sync is disabled.
+ */
+public class StreamingBenchmark implements App {
+
+    public static void main(String[] a) {
+        new StreamingBenchmark().run();
+    }
+
+    static final int WIDTH = 800, HEIGHT = 500;
+    static final int QUADS = 65536, WARMUP = 100, FRAMES = 1000;
+    /**
+     * Bytes streamed per quad by {@link Renderers.POS2_COL_Renderer}: 4 vertices of 12 bytes and a z-level.
+     */
+    static final int QUAD_BYTES = 4 * 12 + 1;
+
+    static final Map<String, BufferStreamingStrategy.Factory> strategies = new LinkedHashMap<>();
+    static {
+        strategies.put("persistent", BufferStreamingStrategies.PERSISTENT);
+        strategies.put("coherent", BufferStreamingStrategies.COHERENT);
+        strategies.put("orphan", BufferStreamingStrategies.ORPHAN);
+        strategies.put("subdata", BufferStreamingStrategies.SUBDATA);
+        strategies.put("unsync", BufferStreamingStrategies.UNSYNCHRONIZED);
+    }
+
+    Window window;
+    final float[] rects = new float[QUADS * 4];
+    final int[] colors = new int[QUADS];
+
+    @Override
+    public void init() {
+        GLFWContext.build(4, 6, true);
+        window = Window.build("", WIDTH, HEIGHT);
+        glfwSwapInterval(0);
+        Renderers.init(WIDTH, HEIGHT, 1, 1, 1);    // registers the UI libraries
+
+        Random r = new Random(42);
+        for (int i = 0; i < QUADS; i++) {
+            float x = r.nextFloat() * WIDTH, y = r.nextFloat() * HEIGHT;
+            rects[i * 4] = x;
+            rects[i * 4 + 1] = y;
+            rects[i * 4 + 2] = x + r.nextFloat() * 20;
+            rects[i * 4 + 3] = y + r.nextFloat() * 20;
+            colors[i] = 0xFF000000 | r.nextInt(0xFFFFFF);
+        }
+    }
+
+    @Override
+    public void loop() {
+        for (var e : strategies.entrySet()) {
+            WorldRenderer w = new Renderers.POS2_COL_Renderer(QUADS, AbstractQuadRenderer.DEFAULT_RING_SEGMENTS,
+                    e.getValue());
+            try {
+                w.build(ShaderProgram.build(Circe.parseVertexAndFragment(
+                        Files.readString(Paths.get("./assets/shaders/ui_col.glsl")), w.format())));
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            bench(e.getKey(), w);
+            w.dispose();
+        }
+    }
+
+    private void bench(String name, WorldRenderer w) {
+        for (int i = 0; i < WARMUP; i++)
+            frame(w);
+        glFinish();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++)
+            frame(w);
+        glFinish();
+        double frameMs = (System.nanoTime() - t0) / (FRAMES * 1e6);
+        double mbPerSecond = (double) QUADS * QUAD_BYTES / (1 << 20) / (frameMs / 1e3);
+        System.out.printf("%-12s %8.3f ms/frame %10.1f MB/s%n", name, frameMs, mbPerSecond);
+    }
+
+    private void frame(WorldRenderer w) {
+        window.preRender();
+        for (int i = 0; i < QUADS; i++)
+            w.quad(rects[i * 4], rects[i * 4 + 1], rects[i * 4 + 2], rects[i * 4 + 3], colors[i]);
+        w.GPU();
+        window.postRender();
+    }
+
+    @Override
+    public void dispose() {
+        Renderers.dispose();
+        window.dispose();
+        GLFWContext.current().dispose();
+    }
+}
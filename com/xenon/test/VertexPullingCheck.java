@@ -0,0 +1,139 @@
+package com.xenon.test;
+
+import com.xenon.glfw.GLFWContext;
+import com.xenon.glfw.ShaderProgram;
+import com.xenon.glfw.Window;
+import com.xenon.glfw.abstraction.App;
+import com.xenon.opengl.VertexFormat;
+import com.xenon.opengl.abstraction.Renderers;
+import com.xenon.opengl.abstraction.WorldRenderer;
+import com.xenon.opengl.debug.Circe;
+import org.lwjgl.system.MemoryStack;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL46.*;
+
+/**
+ * Draws quads whose vertices are pulled per vertex (see {@link VertexFormat.Fetch#PER_VERTEX}) out of the renderer's
+ * shader storage buffer, offset by a translation pulled per batch ({@link VertexFormat.Fetch#PER_BATCH}) out of a
+ * uniform buffer, then reads the framebuffer back to check where they landed. The z-levels are still pulled per
+ * quad, so that the 3 pulled modes share a single draw call.
+ */
+public class VertexPullingCheck implements App {
+
+    public static void main(String[] a) {
+        new VertexPullingCheck().run();
+    }
+
+    static final int WIDTH = 800, HEIGHT = 500;
+    static final int BATCH_BDG = 2;
+    static final float DX = 300, DY = 200;
+
+    static final String shader = """
+            #vertex
+            #inputs <0: vec2 / pos; 1: vec4 / inCol; 2: float / zlevel; 3: vec2 / translation>
+            #outputs <0: vec4 / outCol>
+
+            #include <XENON_UI_ESSENTIALS>
+
+            void main()
+            {
+                outCol = inCol;
+                gl_Position = vec4(correct2D( pos + translation ), zlevel, 1.0);
+            }
+
+            #fragment
+            #inputs <0: vec4 / inCol>
+            #outputs <0: vec4 / outCol>
+
+            void main()
+            {
+                outCol = inCol;
+            }
+            """;
+
+    Window window;
+    Pulled renderer;
+    int ubo;
+
+    @Override
+    public void init() {
+        GLFWContext.build(4, 6, true);
+        window = Window.build("", WIDTH, HEIGHT);
+        Renderers.init(WIDTH, HEIGHT, 1, 1, 1);    // registers the UI libraries
+        renderer = new Pulled();
+        ubo = glCreateBuffers();
+        glNamedBufferStorage(ubo, new float[] {DX, DY, 0, 0, 0, 0, 0, 0}, 0);
+    }
+
+    @Override
+    public void loop() {
+        glDisable(GL_DEPTH_TEST);
+        glClearColor(0, 0, 0, 1);
+        glClear(GL_COLOR_BUFFER_BIT);
+        glBindBufferBase(GL_UNIFORM_BUFFER, BATCH_BDG, ubo);
+        renderer.quad(10, 10, 40, 40, 0xFFFF0000);
+        renderer.quad(60, 10, 90, 40, 0xFF00FF00);
+        renderer.GPU();
+        glFinish();
+
+        int failures = check(25 + DX, 25 + DY, 0xFF0000)
+                + check(75 + DX, 25 + DY, 0x00FF00)
+                + check(25, 25, 0)      // nothing left at the untranslated position
+                + check(75, 25, 0);
+        System.out.println(failures == 0 ? "OK" : failures + " failures");
+    }
+
+    /*
+    * Reads back a pixel, y going down like the quads' coordinates
+    * */
+    private static int check(float x, float y, int rgb) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            ByteBuffer pixel = stack.malloc(4);
+            glReadPixels((int) x, HEIGHT - 1 - (int) y, 1, 1, GL_RGBA, GL_UNSIGNED_BYTE, pixel);
+            int read = (pixel.get(0) & 0xFF) << 16 | (pixel.get(1) & 0xFF) << 8 | pixel.get(2) & 0xFF;
+            if (read == rgb)
+                return 0;
+            System.out.printf("(%s, %s): 0x%06x, expected 0x%06x%n", x, y, read, rgb);
+            return 1;
+        }
+    }
+
+    @Override
+    public void dispose() {
+        glDeleteBuffers(ubo);
+        renderer.dispose();
+        Renderers.dispose();
+        window.dispose();
+        GLFWContext.current().dispose();
+    }
+
+    /**
+     * {@link Renderers.POS2_COL_Renderer}'s layout, with the vertices pulled per vertex, and a translation per batch.
+     */
+    static class Pulled extends Renderers.Depth2DRenderer {
+
+        Pulled() {
+            super(16, DEFAULT_RING_SEGMENTS, VertexFormat.of(
+                    new VertexFormat.VertexFormatElement(0, VBO_BDG, 2, GL_FLOAT, false,
+                            VertexFormat.Fetch.PER_VERTEX),
+                    new VertexFormat.VertexFormatElement(1, VBO_BDG, 4, GL_UNSIGNED_BYTE, true,
+                            VertexFormat.Fetch.PER_VERTEX),
+                    new VertexFormat.VertexFormatElement(2, INST_VBO_BDG, 1, GL_UNSIGNED_BYTE, true,
+                            VertexFormat.Fetch.PER_QUAD),
+                    new VertexFormat.VertexFormatElement(3, BATCH_BDG, 2, GL_FLOAT, false,
+                            VertexFormat.Fetch.PER_BATCH)
+            ));
+            build(ShaderProgram.build(Circe.parseVertexAndFragment(shader, format)));
+        }
+
+        /**
+         * @throws UnsupportedOperationException always
+         */
+        @Override
+        public WorldRenderer tex(double u, double v) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -11,4 +11,97 @@ public class MathsTools {
         int highest_one = Integer.highestOneBit(i);
         return i == highest_one ? i : highest_one << 1;
     }
+
+    /**
+     * Converts a float to an IEEE 754 half-precision float, rounding to the nearest, ties to even, like
+     * <code>Float.floatToFloat16</code> (Java 20+) does.
+     * Overflows become infinities, NaNs stay (quiet) NaNs.
+     * @param f the float
+     * @return the bits of the half float
+     */
+    public static short floatToHalf(float f) {
+        int bits = Float.floatToRawIntBits(f);
+        int sign = bits >>> 16 & 0x8000;
+        int abs = bits & 0x7FFFFFFF;
+        if (abs > 0x7F800000)   // NaN
+            return (short) (sign | 0x7E00 | (abs & 0x007FFFFF) >>> 13);
+        if (abs >= 0x477FF000)  // infinity, or rounds past 65504
+            return (short) (sign | 0x7C00);
+        if (abs >= 0x38800000) {    // normal, the rounding may carry into the exponent
+            int val = abs - 0x38000000;
+            return (short) (sign | val + 0xFFF + (val >>> 13 & 1) >>> 13);
+        }
+        if (abs <= 0x33000000)  // rounds to zero, even at the tie with the smallest subnormal
+            return (short) sign;
+        int shift = 126 - (abs >>> 23);   // subnormal, the rounding may carry into the smallest normal
+        int mantissa = abs & 0x7FFFFF | 0x800000;
+        return (short) (sign | mantissa + (1 << shift - 1) - 1 + (mantissa >>> shift & 1) >>> shift);
+    }
+
+    /**
+     * Converts an IEEE 754 half-precision float to a float.
+     * @param h the bits of the half float
+     * @return the float
+     */
+    public static float halfToFloat(short h) {
+        int sign = (h & 0x8000) << 16;
+        int exp = h >>> 10 & 0x1F;
+        int mantissa = h & 0x3FF;
+        if (exp == 0x1F)    // NaN or infinity
+            return Float.intBitsToFloat(sign | 0x7F800000 | mantissa << 13);
+        if (exp == 0)   // zero or subnormal
+            return Float.intBitsToFloat(sign | Float.floatToRawIntBits(mantissa * 0x1p-24f));
+        return Float.intBitsToFloat(sign | exp + 112 << 23 | mantissa << 13);
+    }
+
+    /**
+     * @param f a float, clamped to [0, 1]
+     * @return <code>f</code> as a normalized unsigned short
+     */
+    public static short unorm16(float f) {
+        return (short) Math.round(Math.min(Math.max(f, 0f), 1f) * 65535f);
+    }
+
+    /**
+     * @param f a float, clamped to [-1, 1]
+     * @return <code>f</code> as a normalized signed short
+     */
+    public static short snorm16(float f) {
+        return (short) Math.round(Math.min(Math.max(f, -1f), 1f) * 32767f);
+    }
+
+    /**
+     * Packs 4 normalized floats, clamped to [-1, 1], for <code>GL_INT_2_10_10_10_REV</code>:
+     * <code>x</code> in the lowest 10 bits, <code>w</code> in the highest 2.
+     * @param x the 1st component
+     * @param y the 2nd component
+     * @param z the 3rd component
+     * @param w the 4th component
+     * @return the packed components
+     */
+    public static int snorm2_10_10_10(float x, float y, float z, float w) {
+        return snorm(x, 511) & 0x3FF | (snorm(y, 511) & 0x3FF) << 10 | (snorm(z, 511) & 0x3FF) << 20
+                | snorm(w, 1) << 30;
+    }
+
+    /**
+     * Packs 4 normalized floats, clamped to [0, 1], for <code>GL_UNSIGNED_INT_2_10_10_10_REV</code>:
+     * <code>x</code> in the lowest 10 bits, <code>w</code> in the highest 2.
+     * @param x the 1st component
+     * @param y the 2nd component
+     * @param z the 3rd component
+     * @param w the 4th component
+     * @return the packed components
+     */
+    public static int unorm2_10_10_10(float x, float y, float z, float w) {
+        return unorm(x, 1023) | unorm(y, 1023) << 10 | unorm(z, 1023) << 20 | unorm(w, 3) << 30;
+    }
+
+    private static int snorm(float f, int max) {
+        return Math.round(Math.min(Math.max(f, -1f), 1f) * max);
+    }
+
+    private static int unorm(float f, int max) {
+        return Math.round(Math.min(Math.max(f, 0f), 1f) * max);
+    }
 }